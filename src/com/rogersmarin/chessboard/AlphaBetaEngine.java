@@ -0,0 +1,205 @@
+package com.rogersmarin.chessboard;
+
+/**
+ * Engine that searches a fixed number of plies with alpha-beta pruning and scores
+ * the positions it reaches by material. Moves are searched in {@link MovePicker} order.
+ * {@link #deepen} searches one ply deeper at a time instead, for searches limited by time.
+ * An engine that has been stopped cannot search again
+ * @author roger
+ *
+ */
+public class AlphaBetaEngine implements Engine {
+
+	/** Score for giving mate, reduced by the number of plies needed to reach it */
+	public static final int MATE = 100000;
+	private static final int INFINITY = MATE + 1;
+
+	/**
+	 * Interface for following a deepening search, called on the searching thread
+	 */
+	public interface DepthListener {
+		/**
+		 * Called each time a depth has been searched in full
+		 * @param depth
+		 * @param move the best move at that depth
+		 * @param score the move's score for the side to move
+		 * @param nodes the positions visited so far, all depths included
+		 */
+		void depthDone(int depth, int move, int score, long nodes);
+	}
+
+	private final int depth;
+	private volatile boolean stopped;
+	private long nodes;
+	private int bestScore;
+
+	/**
+	 * @param depth the number of plies to search, at least 1
+	 */
+	public AlphaBetaEngine(int depth) {
+		this.depth = Math.max(1, depth);
+	}
+
+	/**
+	 * Returns the best move found, if the search is stopped early the best move among those searched
+	 * so far or the first legal move if none was
+	 */
+	public int chooseMove(ChessBoard board) {
+		return searchRoot(board, depth, rootMoves(board));
+	}
+
+	/**
+	 * Searches one ply deeper at a time until the given depth, a mate is found or the engine is
+	 * stopped. Each depth searches first the best move of the depth before, the depth given to the
+	 * constructor is not used. Afterwards getNodes counts every depth and getScore is the score of
+	 * the deepest depth searched in full
+	 * @param board
+	 * @param maxDepth
+	 * @param listener told about each depth searched in full, or null
+	 * @return the best move of the deepest depth searched in full, the best move found so far if the
+	 * first depth was stopped, or Move.NONE if there is no legal move
+	 */
+	public int deepen(ChessBoard board, int maxDepth, DepthListener listener) {
+		int[] moves = rootMoves(board);
+		int best = Move.NONE;
+		int score = 0;
+		long total = 0;
+		for (int d = 1; d <= maxDepth && !stopped; d++) {
+			int move = searchRoot(board, d, moves);
+			total += nodes;
+			if (stopped) {
+				// a partly searched depth is only trusted when nothing better is known
+				if (best == Move.NONE) {
+					best = move;
+					score = bestScore;
+				}
+				break;
+			}
+			best = move;
+			score = bestScore;
+			if (move == Move.NONE) break;
+			for (int i = indexOf(moves, move); i > 0; i--) {
+				moves[i] = moves[i - 1];
+			}
+			moves[0] = move;
+			if (listener != null) listener.depthDone(d, move, score, total);
+			// a mate within the depth searched cannot be made shorter or put off by searching deeper
+			if (Math.abs(score) >= MATE - d) break;
+		}
+		nodes = total;
+		bestScore = score;
+		return best;
+	}
+
+	private static int[] rootMoves(ChessBoard board) {
+		MoveList legal = board.getLegalMoves();
+		int[] moves = new int[legal.size()];
+		for (int i = 0; i < moves.length; i++) {
+			moves[i] = legal.get(i);
+		}
+		return moves;
+	}
+
+	private static int indexOf(int[] moves, int move) {
+		for (int i = 0; i < moves.length; i++) {
+			if (moves[i] == move) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Searches each root move in the order given, setting nodes and bestScore
+	 */
+	private int searchRoot(ChessBoard board, int depth, int[] moves) {
+		int best = (moves.length == 0) ? Move.NONE : moves[0];
+		int alpha = -INFINITY;
+		nodes = 0;
+		for (int i = 0; i < moves.length; i++) {
+			board.makeMove(moves[i]);
+			int score = -search(board, depth - 1, -INFINITY, -alpha, 1);
+			board.unmakeMove();
+			if (stopped) break;
+			if (score > alpha) {
+				alpha = score;
+				best = moves[i];
+			}
+		}
+		bestScore = alpha;
+		return best;
+	}
+
+	/**
+	 * Asks a search running on another thread to return as soon as possible. The engine stays stopped,
+	 * every later search returns straight away, so a new engine is made for the next search. Clearing
+	 * the flag when a search starts would lose a stop asked for just before it
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Returns the number of positions visited by the last search
+	 * @return
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the score of the move chosen by the last search for the side to move
+	 * @return
+	 */
+	public int getScore() {
+		return bestScore;
+	}
+
+	/**
+	 * Returns the score of the position for the side to move
+	 */
+	private int search(ChessBoard board, int depth, int alpha, int beta, int ply) {
+		nodes++;
+		if (stopped) return 0;
+		if (depth == 0) {
+			// a leaf only needs to know whether the side to move has a move, not which one is best
+			if (!board.hasLegalMove()) return board.isCheck(board.getTurn()) ? -MATE + ply : 0;
+			if (board.getRepetitions() > 0 || board.isFiftyMoveDraw()) return 0;
+			return evaluate(board);
+		}
+		MovePicker picker = new MovePicker(board);
+		int move = picker.next();
+		if (move == Move.NONE) {
+			return board.isCheck(board.getTurn()) ? -MATE + ply : 0;
+		}
+		if (board.getRepetitions() > 0 || board.isFiftyMoveDraw()) return 0;
+		do {
+			board.makeMove(move);
+			int score = -search(board, depth - 1, -beta, -alpha, ply + 1);
+			board.unmakeMove();
+			if (score >= beta) return beta;
+			if (score > alpha) alpha = score;
+		} while ((move = picker.next()) != Move.NONE);
+		return alpha;
+	}
+
+	/**
+	 * Returns the material balance from the point of view of the side to move
+	 * @param board
+	 * @return
+	 */
+	public static int evaluate(ChessBoard board) {
+		int score = 0;
+		for (int square = 0; square < 64; square++) {
+			Piece p = board.pieceAt(square);
+			if (p != null) score += p.isBlack() ? -p.getType().getValue() : p.getType().getValue();
+		}
+		return board.getTurn().equals(Colour.WHITE) ? score : -score;
+	}
+
+	public String getName() {
+		return "alphabeta" + depth;
+	}
+}
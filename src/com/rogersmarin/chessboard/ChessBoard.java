@@ -1,7 +1,6 @@
 package com.rogersmarin.chessboard;
 
-import java.util.EnumMap;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -14,17 +13,57 @@ public class ChessBoard implements Cloneable {
 	
 	private boolean check;
 	private Piece capture = null;
-	private HashMap<Coordinate, Piece> positions;
-	private EnumMap<Colour, Set<Coordinate>> attackedCoordinates;
+	private Piece[] squares;
+	private long[] attackedSquares = new long[2];
+	private boolean attacksChanged;
+	private long state = GameState.INITIAL;
+	private long savedState;
+	private MoveList[] legalMoves = new MoveList[2];
+	private boolean[] legalMovesCurrent = new boolean[2];
+	private int ply;
+	private int[] undoMoves = new int[64];
+	private Piece[] undoCaptures = new Piece[64];
+	private boolean[] undoMoved = new boolean[64];
+	private long[] undoStates = new long[64];
+	private long hash;
+	private boolean hashChanged = true;
+	private int historySize;
+	private long[] hashHistory = new long[64];
+	private MoveEventStream eventStream;
+	private MoveList spareMoves = new MoveList();
 	
 	/**
-	 * 
+	 * The starting position with its attacks, hash and legal moves worked out once, every new
+	 * or reset board copies it instead of setting the pieces up again
+	 */
+	private static final ChessBoard INITIAL_POSITION = createInitialPosition();
+	
+	/**
+	 * Creates a board in the starting position
 	 * @throws Exception
 	 */
 	public ChessBoard() throws Exception {
-		positions = new HashMap<Coordinate, Piece>();
-		init();
-		setAttackedCoordinates();
+		squares = new Piece[64];
+		copyPosition(INITIAL_POSITION);
+	}
+	
+	/**
+	 * Creates an empty board with the given colour to move, used to set up positions square by square
+	 * @param turn
+	 */
+	ChessBoard(Colour turn) {
+		squares = new Piece[64];
+		state = GameState.withTurn(GameState.withCastlingRights(GameState.INITIAL, 0), turn);
+		positionChanged();
+	}
+	
+	/**
+	 * Creates an independent copy of the given board, the squares are copied as a single array
+	 * and only the pieces themselves are duplicated
+	 * @param board the board to copy
+	 */
+	public ChessBoard(ChessBoard board) {
+		copyFrom(board);
 	}
 	
 	
@@ -35,7 +74,7 @@ public class ChessBoard implements Cloneable {
 	 */
 	public Set<Piece> getPieces(Colour colour) {
 		Set<Piece> pieces = new HashSet<Piece>();
-		for (Piece p : positions.values()) {
+		for (Piece p : squares) {
 			if (p != null) {
 				if (p.getColour().equals(colour)) pieces.add(p);
 			}
@@ -51,13 +90,167 @@ public class ChessBoard implements Cloneable {
 		this.check = check;
 	}
 	
+	/**
+	 * Returns the colour whose turn it is to move
+	 * @return
+	 */
+	public Colour getTurn() {
+		return GameState.getTurn(state);
+	}
+	
+	/**
+	 * Returns the side to move, castling rights, en passant file and move counters packed
+	 * in one word, see {@link GameState} for the layout
+	 * @return
+	 */
+	public long getState() {
+		return state;
+	}
+	
+	/**
+	 * Returns the castling rights still held as a combination of the GameState flags
+	 * @return
+	 */
+	public int getCastlingRights() {
+		return GameState.getCastlingRights(state);
+	}
+	
+	/**
+	 * Returns the square a pawn can move to when capturing en passant or -1 if there is none
+	 * @return
+	 */
+	public int getEnPassantSquare() {
+		int file = GameState.getEnPassantFile(state);
+		if (file < 0) return -1;
+		return (state & 1) == 0 ? 40 + file : 16 + file;
+	}
+	
+	/**
+	 * Returns the number of the current move, starting at 1 and increased after each black move
+	 * @return
+	 */
+	public int getFullmoveNumber() {
+		return GameState.getFullmoveNumber(state);
+	}
+	
 	/**
 	 * Returns the piece at the specified position
 	 * @param coordinate
 	 * @return
 	 */
 	public Piece getPieceAt(Coordinate coordinate) {
-		return positions.get(coordinate);
+		int square = coordinate.getSquare();
+		return (square < 0) ? null : squares[square];
+	}
+	
+	Piece pieceAt(int square) {
+		return squares[square];
+	}
+	
+	/**
+	 * Places a piece on a square without recomputing anything, null empties the square
+	 * @param square
+	 * @param piece
+	 */
+	void place(int square, Piece piece) {
+		squares[square] = piece;
+		if (piece != null) piece.setPosition(Coordinate.valueOf(square));
+		positionChanged();
+	}
+	
+	void setTurn(Colour turn) {
+		state = GameState.withTurn(state, turn);
+		hashChanged = true;
+	}
+	
+	/**
+	 * Replaces the game state word, used when setting up a position square by square
+	 * @param state
+	 */
+	void setState(long state) {
+		this.state = state;
+		positionChanged();
+	}
+	
+	/**
+	 * Returns the hash of the position, made from the pieces, the side to move, the castling rights
+	 * and the en passant file
+	 * @return
+	 */
+	public long getHash() {
+		if (hashChanged) {
+			long h = Zobrist.state(state);
+			for (int square = 0; square < 64; square++) {
+				if (squares[square] != null) h ^= Zobrist.piece(squares[square], square);
+			}
+			hash = h;
+			hashChanged = false;
+		}
+		return hash;
+	}
+	
+	/**
+	 * Sets the stream that moves played through {@link Piece#checkBoard(Coordinate, ChessBoard, MoveResult)}
+	 * are published to, null stops publishing. Moves made with makeMove, e.g by a search, are not published
+	 * @param eventStream
+	 */
+	public void setEventStream(MoveEventStream eventStream) {
+		this.eventStream = eventStream;
+	}
+	
+	public MoveEventStream getEventStream() {
+		return eventStream;
+	}
+	
+	/**
+	 * Publishes a move that has just been played to the event stream, if there is one
+	 * @param move
+	 * @param captured
+	 * @param status the MoveResult status after the move
+	 */
+	void movePlayed(int move, Piece captured, int status) {
+		if (eventStream != null) {
+			eventStream.publish(MoveEvent.encode(move, (captured != null) ? captured.getType() : null, status, historySize));
+		}
+	}
+	
+	/**
+	 * Returns the number of moves made since the last capture or pawn move
+	 * @return
+	 */
+	public int getHalfmoveClock() {
+		return GameState.getHalfmoveClock(state);
+	}
+	
+	/**
+	 * Returns true if the fifty move rule applies, a hundred moves without a capture or a pawn move
+	 * @return
+	 */
+	public boolean isFiftyMoveDraw() {
+		return GameState.getHalfmoveClock(state) >= 100;
+	}
+	
+	/**
+	 * Returns the number of earlier times the current position has occurred. Only positions since
+	 * the last capture or pawn move with the same side to move are compared
+	 * @return
+	 */
+	public int getRepetitions() {
+		long current = getHash();
+		int repetitions = 0;
+		int oldest = Math.max(0, historySize - GameState.getHalfmoveClock(state));
+		for (int i = historySize - 2; i >= oldest; i -= 2) {
+			if (hashHistory[i] == current) repetitions++;
+		}
+		return repetitions;
+	}
+	
+	/**
+	 * Returns true if the current position has occurred at least twice before
+	 * @return
+	 */
+	public boolean isThreefoldRepetition() {
+		return getRepetitions() >= 2;
 	}
 	
 	/**
@@ -71,7 +264,8 @@ public class ChessBoard implements Cloneable {
 		if(!isPositionEmpty(coordinate)){
 			removePieceAt(coordinate);
 		}
-		positions.put(coordinate, piece);
+		squares[coordinate.getSquare()] = piece;
+		positionChanged();
 	}
 	
 	/**
@@ -79,7 +273,8 @@ public class ChessBoard implements Cloneable {
 	 * @param coordinate
 	 */
 	public void removePieceAt(Coordinate coordinate) {
-		positions.put(coordinate, null);
+		squares[coordinate.getSquare()] = null;
+		positionChanged();
 		try {
 			setAttackedCoordinates();
 		} catch (Exception e) {
@@ -93,23 +288,32 @@ public class ChessBoard implements Cloneable {
 	 * @return
 	 */
 	public boolean isPositionEmpty(Coordinate coordinate){
-		return !(positions.get(coordinate)!=null);
+		return !(getPieceAt(coordinate)!=null);
 	}
 	
 	/**
-	 * Sets the coordinates attacked 
+	 * Sets the coordinates attacked, one 64 bit mask per colour
 	 * @throws Exception
 	 */
 	public void setAttackedCoordinates() throws Exception {
-		attackedCoordinates = new EnumMap<Colour, Set<Coordinate>>(Colour.class);
-		attackedCoordinates.put(Colour.WHITE, new HashSet<Coordinate>());
-		attackedCoordinates.put(Colour.BLACK, new HashSet<Coordinate>());
-		for (Coordinate coordinate : new HashSet<Coordinate>(positions.keySet())) {
-			Piece piece = positions.get(coordinate);
+		computeAttackedSquares();
+	}
+	
+	private void computeAttackedSquares() {
+		long white = 0L, black = 0L;
+		for (int square = 0; square < 64; square++) {
+			Piece piece = squares[square];
 			if (piece != null) {
-				attackedCoordinates.get(piece.oppositePlayer()).addAll(piece.getValidCoordinates(this, true));
+				if (piece.isBlack()) {
+					white |= attacksFrom(square, piece);
+				} else {
+					black |= attacksFrom(square, piece);
+				}
 			}
 		}
+		attackedSquares[Colour.WHITE.ordinal()] = white;
+		attackedSquares[Colour.BLACK.ordinal()] = black;
+		attacksChanged = false;
 	}
 	
 	/**
@@ -119,9 +323,43 @@ public class ChessBoard implements Cloneable {
 	 * @throws Exception
 	 */
 	public Set<Coordinate> getAttackedCoordinates(Colour colour) throws Exception {
-		return attackedCoordinates.get(colour);
+		Set<Coordinate> coordinates = new HashSet<Coordinate>();
+		long mask = getAttackedSquares(colour);
+		while (mask != 0) {
+			coordinates.add(Coordinate.valueOf(Long.numberOfTrailingZeros(mask)));
+			mask &= mask - 1;
+		}
+		return coordinates;
 	}
 	
+	/**
+	 * Returns the squares attacked by the opposite player of the given colour as a mask,
+	 * bit 0 is A1 and bit 63 is H8
+	 * @param colour the colour being attacked
+	 * @return
+	 */
+	public long getAttackedSquares(Colour colour) {
+		if (attacksChanged) computeAttackedSquares();
+		return attackedSquares[colour.ordinal()];
+	}
+	
+	/**
+	 * Returns true if the square is attacked by any piece of the given colour,
+	 * found by looking outwards from the square for pieces able to reach it
+	 * @param square 0 for A1 up to 63 for H8
+	 * @param byColour the attacking colour
+	 * @return
+	 */
+	public boolean isSquareAttacked(int square, Colour byColour) {
+		Colour defender = byColour.equals(Colour.WHITE) ? Colour.BLACK : Colour.WHITE;
+		if (findAttacker(Squares.PAWN_ATTACKS[defender.ordinal()][square], PieceType.PAWN, byColour)
+				|| findAttacker(Squares.KNIGHT_ATTACKS[square], PieceType.KNIGHT, byColour)
+				|| findAttacker(Squares.KING_ATTACKS[square], PieceType.KING, byColour)) {
+			return true;
+		}
+		return findSlider(square, Squares.ROOK_DIRECTIONS, PieceType.ROOK, byColour)
+				|| findSlider(square, Squares.BISHOP_DIRECTIONS, PieceType.BISHOP, byColour);
+	}
 	
 	/**
 	 * Returns true if the specified colour is under check
@@ -129,20 +367,53 @@ public class ChessBoard implements Cloneable {
 	 * @return
 	 */
 	public boolean isCheck(Colour colour) {
-		try {
-			for (Coordinate coord : getAttackedCoordinates(colour)) {
-				Piece attackedPiece = getPieceAt(coord);
-				if (attackedPiece != null) {
-					if (attackedPiece.getType().equals(PieceType.KING) 
-							&& attackedPiece.getColour().equals(colour)) {
-						return true;
-					}
-				}
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		int kingSquare = kingSquare(colour);
+		if (kingSquare < 0) return false;
+		Colour opposite = colour.equals(Colour.WHITE) ? Colour.BLACK : Colour.WHITE;
+		return isSquareAttacked(kingSquare, opposite);
+	}
+	
+	/**
+	 * Returns the material won or lost by the side making the move if both sides keep capturing
+	 * on the destination square with their least valuable piece, each side stopping as soon as
+	 * carrying on would lose more. Sliders hidden behind a piece that captures join in once it
+	 * has left. A result of 0 or more means the moved piece is safe on its new square
+	 * @param move a move for the side to move, it need not be a capture
+	 * @return
+	 */
+	public int staticExchange(int move) {
+		int to = Move.getTo(move);
+		int from = Move.getFrom(move);
+		int[] gain = new int[32];
+		int depth = 0;
+		Piece target = squares[to];
+		gain[0] = (target != null) ? target.getType().getValue() : 0;
+		long occupied = 0L;
+		for (int square = 0; square < 64; square++) {
+			if (squares[square] != null) occupied |= Squares.bit(square);
 		}
-		return false;
+		if (Move.isEnPassant(move)) {
+			gain[0] = PieceType.PAWN.getValue();
+			occupied &= ~Squares.bit((to & 7) | (from & ~7));
+		}
+		long attackers = attackersTo(to, occupied);
+		Piece attacker = squares[from];
+		Colour side = attacker.getColour();
+		while (true) {
+			depth++;
+			gain[depth] = attacker.getType().getValue() - gain[depth - 1];
+			if (Math.max(-gain[depth - 1], gain[depth]) < 0) break;
+			occupied &= ~Squares.bit(from);
+			attackers = (attackers | sliderAttackersTo(to, occupied)) & occupied;
+			side = side.equals(Colour.WHITE) ? Colour.BLACK : Colour.WHITE;
+			from = leastValuableAttacker(attackers, side);
+			if (from < 0) break;
+			attacker = squares[from];
+		}
+		while (--depth > 0) {
+			gain[depth - 1] = -Math.max(-gain[depth - 1], gain[depth]);
+		}
+		return gain[0];
 	}
 	
 	/**
@@ -151,7 +422,7 @@ public class ChessBoard implements Cloneable {
 	 * @return
 	 */
 	public Piece getKing(Colour colour) {
-		for (Piece p : positions.values()) {
+		for (Piece p : squares) {
 			if (p != null) {
 				if (p.getType().equals(PieceType.KING) 
 						&& p.getColour().equals(colour)) {
@@ -169,29 +440,25 @@ public class ChessBoard implements Cloneable {
 	 * @param move
 	 */
 	public void movePiece(Piece piece, Coordinate move) {
-		positions.put(piece.getPosition(), null);
-		Piece opposite;
-		capture =  ((opposite = positions.get(move)) != null) ? opposite : null;
-		positions.put(move, piece);
-		try {
-			setAttackedCoordinates();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		movePiece(piece, piece.getPosition(), move);
 	}
 	
 	/**
 	 * Moves a piece between 2 coordinates, if the to coordinate set is not empty it does not remove the piece
-	 * but instead tries to capture the piece 
+	 * but instead tries to capture the piece. The game state is saved first and the castling rights
+	 * of the squares involved are dropped until {@link #movePieceBack(Piece, Coordinate)} restores it
 	 * @param piece
 	 * @param from
 	 * @param to
 	 */
 	public void movePiece(Piece piece, Coordinate from, Coordinate to) {
-		positions.put(from, null);
-		Piece opposite;
-		capture =  ((opposite = positions.get(to)) != null) ? opposite : null;
-		positions.put(to, piece);
+		squares[from.getSquare()] = null;
+		capture = squares[to.getSquare()];
+		squares[to.getSquare()] = piece;
+		savedState = state;
+		int rights = GameState.castlingRightsAfter(GameState.getCastlingRights(state), from.getSquare());
+		state = GameState.withCastlingRights(state, GameState.castlingRightsAfter(rights, to.getSquare()));
+		positionChanged();
 		try {
 			setAttackedCoordinates();
 		} catch (Exception e) {
@@ -205,8 +472,10 @@ public class ChessBoard implements Cloneable {
 	 * @param move
 	 */
 	public void movePieceBack(Piece piece, Coordinate move) {
-		positions.put(move, capture);
-		positions.put(piece.getPosition(), piece);
+		squares[move.getSquare()] = capture;
+		squares[piece.getPosition().getSquare()] = piece;
+		state = savedState;
+		positionChanged();
 		try {
 			setAttackedCoordinates();
 		} catch (Exception e) {
@@ -219,9 +488,436 @@ public class ChessBoard implements Cloneable {
 	 * @throws Exception
 	 */
 	public void reset() throws Exception{
-		positions = new HashMap<Coordinate, Piece>();
-		init();
-		setAttackedCoordinates();
+		copyPosition(INITIAL_POSITION);
+		ply = 0;
+	}
+	
+	/**
+	 * Returns the legal moves for the side to move, see {@link #getLegalMoves(Colour)}
+	 * @return
+	 */
+	public MoveList getLegalMoves() {
+		return getLegalMoves(getTurn());
+	}
+	
+	/**
+	 * Returns the legal moves for the given colour. The list is generated on the first request
+	 * and kept until the board next changes, callers must not modify it. A list that has been
+	 * returned is never refilled so it can still be read after moves are made on the board
+	 * @param colour
+	 * @return
+	 */
+	public MoveList getLegalMoves(Colour colour) {
+		int index = colour.ordinal();
+		if (!legalMovesCurrent[index]) {
+			MoveList moves = new MoveList();
+			MoveGenerator.generate(this, colour, moves);
+			int king = kingSquare(colour);
+			boolean inCheck = king >= 0 && isSquareAttacked(king, opposite(colour));
+			for (int i = moves.size() - 1; i >= 0; i--) {
+				if (!isLegal(moves.get(i), king, inCheck)) moves.removeAt(i);
+			}
+			legalMoves[index] = moves;
+			legalMovesCurrent[index] = true;
+		}
+		return legalMoves[index];
+	}
+	
+	/**
+	 * Adds the pseudo legal moves of the given colour to the list in a single pass over the board.
+	 * The moves may leave the mover's king under check, callers that only visit some of them can
+	 * test those with {@link #isLegal(int)}. Nothing is kept by the board so the list can be reused
+	 * @param colour
+	 * @param moves
+	 */
+	public void generatePseudoLegalMoves(Colour colour, MoveList moves) {
+		MoveGenerator.generate(this, colour, moves);
+	}
+	
+	/**
+	 * Returns true if a pseudo legal move does not leave the mover's king under check. Most moves
+	 * are decided without making them, only king moves, moves of a piece in line with its king,
+	 * en passant and moves made under check are tried on the board
+	 * @param move a move from {@link #generatePseudoLegalMoves(Colour, MoveList)}
+	 * @return
+	 */
+	public boolean isLegal(int move) {
+		Colour colour = squares[Move.getFrom(move)].getColour();
+		int king = kingSquare(colour);
+		return isLegal(move, king, king >= 0 && isSquareAttacked(king, opposite(colour)));
+	}
+	
+	boolean isLegal(int move, int king, boolean inCheck) {
+		int from = Move.getFrom(move), to = Move.getTo(move);
+		Piece piece = squares[from];
+		if (from == king && !Move.isCastling(move)) {
+			// the king is lifted so sliders attacking it along the line it moves on still see its new square
+			squares[from] = null;
+			boolean attacked = isSquareAttacked(to, piece.oppositePlayer());
+			squares[from] = piece;
+			return !attacked;
+		}
+		if (king >= 0 && !inCheck && !Move.isEnPassant(move) && !Move.isCastling(move) && !inLine(from, king)) {
+			return true;
+		}
+		makeMove(move);
+		boolean legal = !isCheck(piece.getColour());
+		unmakeMove();
+		return legal;
+	}
+	
+	/**
+	 * Returns true if the side to move has at least one legal move, stopping at the first one found.
+	 * Cheaper than {@link #getLegalMoves()} when only checkmate and stalemate need telling apart
+	 * @return
+	 */
+	public boolean hasLegalMove() {
+		Colour colour = getTurn();
+		int index = colour.ordinal();
+		if (legalMovesCurrent[index]) return !legalMoves[index].isEmpty();
+		// the spare list is only read here, before any move is made, so it can be reused
+		MoveList moves = spareMoves;
+		moves.clear();
+		MoveGenerator.generate(this, colour, moves);
+		int king = kingSquare(colour);
+		boolean inCheck = king >= 0 && isSquareAttacked(king, opposite(colour));
+		for (int i = 0; i < moves.size(); i++) {
+			if (isLegal(moves.get(i), king, inCheck)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns true if a pseudo legal move puts the opponent's king under check. The moved piece is
+	 * checked for attacking the king from its new square and the square it leaves for uncovering a
+	 * slider behind it, only castling and en passant are made on the board
+	 * @param move
+	 * @return
+	 */
+	public boolean givesCheck(int move) {
+		int from = Move.getFrom(move), to = Move.getTo(move);
+		Piece piece = squares[from];
+		Colour enemy = piece.oppositePlayer();
+		int king = kingSquare(enemy);
+		if (king < 0) return false;
+		if (Move.isCastling(move) || Move.isEnPassant(move)) {
+			makeMove(move);
+			boolean check = isCheck(enemy);
+			unmakeMove();
+			return check;
+		}
+		PieceType type = (Move.getPromotion(move) != null) ? Move.getPromotion(move) : piece.getType();
+		if (type.equals(PieceType.PAWN)) {
+			if ((Squares.PAWN_ATTACKS[piece.getColour().ordinal()][to] & Squares.bit(king)) != 0) return true;
+		} else if (type.equals(PieceType.KNIGHT)) {
+			if ((Squares.KNIGHT_ATTACKS[to] & Squares.bit(king)) != 0) return true;
+		} else if (!type.equals(PieceType.KING) && inLine(to, king)) {
+			boolean straight = Squares.file(to) == Squares.file(king) || Squares.rank(to) == Squares.rank(king);
+			if ((straight ? !type.equals(PieceType.BISHOP) : !type.equals(PieceType.ROOK)) && clearBetween(to, king, from)) return true;
+		}
+		if (!inLine(from, king)) return false;
+		// look from the king through the square left for a slider of the mover's colour
+		int fileStep = Integer.signum(Squares.file(from) - Squares.file(king));
+		int rankStep = Integer.signum(Squares.rank(from) - Squares.rank(king));
+		PieceType slider = (fileStep == 0 || rankStep == 0) ? PieceType.ROOK : PieceType.BISHOP;
+		int square = king;
+		while ((square = Squares.offset(square, fileStep, rankStep)) >= 0) {
+			if (square == to) return false;
+			Piece p = squares[square];
+			if (p == null || square == from) continue;
+			return p.getColour().equals(piece.getColour()) && (p.getType().equals(slider) || p.getType().equals(PieceType.QUEEN));
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns true if the squares between two squares in line are empty, the skipped square counting as empty
+	 */
+	private boolean clearBetween(int square, int other, int skipped) {
+		int fileStep = Integer.signum(Squares.file(other) - Squares.file(square));
+		int rankStep = Integer.signum(Squares.rank(other) - Squares.rank(square));
+		while ((square = Squares.offset(square, fileStep, rankStep)) != other) {
+			if (squares[square] != null && square != skipped) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns true if the squares share a row, column or diagonal
+	 */
+	private static boolean inLine(int square, int other) {
+		int files = Squares.file(square) - Squares.file(other);
+		int ranks = Squares.rank(square) - Squares.rank(other);
+		return files == 0 || ranks == 0 || files == ranks || files == -ranks;
+	}
+	
+	private static Colour opposite(Colour colour) {
+		return colour.equals(Colour.WHITE) ? Colour.BLACK : Colour.WHITE;
+	}
+	
+	/**
+	 * Returns the legal move between two coordinates or Move.NONE if there is none,
+	 * a pawn reaching the last row is promoted to a queen
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public int findLegalMove(Coordinate from, Coordinate to) {
+		Piece piece = getPieceAt(from);
+		if (piece == null || to.getSquare() < 0) return Move.NONE;
+		MoveList moves = getLegalMoves(piece.getColour());
+		int fromSquare = from.getSquare(), toSquare = to.getSquare();
+		for (int i = 0; i < moves.size(); i++) {
+			int move = moves.get(i);
+			if (Move.getFrom(move) == fromSquare && Move.getTo(move) == toSquare) {
+				PieceType promotion = Move.getPromotion(move);
+				if (promotion == null || promotion.equals(PieceType.QUEEN)) return move;
+			}
+		}
+		return Move.NONE;
+	}
+	
+	/**
+	 * Returns the legal move for the side to move written in coordinate notation e.g e2e4 or e7e8q,
+	 * or Move.NONE if the text is not a legal move. A promotion without a type promotes to a queen
+	 * @param notation
+	 * @return
+	 */
+	public int parseMove(String notation) {
+		if (notation.length() < 4) return Move.NONE;
+		int from = parseSquare(notation.charAt(0), notation.charAt(1));
+		int to = parseSquare(notation.charAt(2), notation.charAt(3));
+		if (from < 0 || to < 0) return Move.NONE;
+		char promotion = (notation.length() > 4) ? Character.toUpperCase(notation.charAt(4)) : 'Q';
+		MoveList moves = getLegalMoves(getTurn());
+		for (int i = 0; i < moves.size(); i++) {
+			int move = moves.get(i);
+			if (Move.getFrom(move) == from && Move.getTo(move) == to) {
+				PieceType type = Move.getPromotion(move);
+				if (type == null || type.getLetter() == promotion) return move;
+			}
+		}
+		return Move.NONE;
+	}
+	
+	private static int parseSquare(char file, char rank) {
+		if (file < 'a' || file > 'h' || rank < '1' || rank > '8') return -1;
+		return (rank - '1') * 8 + (file - 'a');
+	}
+	
+	/**
+	 * Creates a board from a position in Forsyth-Edwards Notation, the move counters may be left out
+	 * e.g rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1
+	 * @param fen
+	 * @return
+	 * @throws IllegalArgumentException if the text is not a valid position
+	 */
+	public static ChessBoard fromFen(String fen) {
+		String[] fields = fen.trim().split("\\s+");
+		if (fields.length < 4) throw new IllegalArgumentException("invalid FEN " + fen);
+		ChessBoard board = new ChessBoard(fields[1].equals("b") ? Colour.BLACK : Colour.WHITE);
+		int rank = 7, file = 0;
+		for (char c : fields[0].toCharArray()) {
+			if (c == '/') {
+				rank--;
+				file = 0;
+			} else if (Character.isDigit(c)) {
+				file += c - '0';
+			} else {
+				if (rank < 0 || file > 7) throw new IllegalArgumentException("invalid FEN " + fen);
+				Colour colour = Character.isUpperCase(c) ? Colour.WHITE : Colour.BLACK;
+				PieceType type = Tablebase.typeOf(Character.toUpperCase(c));
+				int square = rank * 8 + file++;
+				Piece piece = new Piece(Coordinate.valueOf(square), type, colour);
+				if (!type.equals(PieceType.PAWN) || rank != (colour.equals(Colour.WHITE) ? 1 : 6)) piece.setMoved(true);
+				board.squares[square] = piece;
+			}
+		}
+		int rights = 0;
+		if (fields[2].indexOf('K') >= 0) rights |= GameState.WHITE_KINGSIDE;
+		if (fields[2].indexOf('Q') >= 0) rights |= GameState.WHITE_QUEENSIDE;
+		if (fields[2].indexOf('k') >= 0) rights |= GameState.BLACK_KINGSIDE;
+		if (fields[2].indexOf('q') >= 0) rights |= GameState.BLACK_QUEENSIDE;
+		long state = GameState.withCastlingRights(board.state, rights);
+		int target = fields[3].equals("-") ? -1 : parseSquare(fields[3].charAt(0), fields[3].length() > 1 ? fields[3].charAt(1) : '0');
+		if (target >= 0) {
+			// recorded only when a pawn can take, as makeMove does, so the hash matches the played position
+			int pawn = (target < 32) ? target + 8 : target - 8;
+			Piece pushed = board.squares[pawn];
+			if (pushed != null && (board.isEnemyPawn(pawn - 1, pushed) || board.isEnemyPawn(pawn + 1, pushed))) {
+				state = GameState.withEnPassantFile(state, target & 7);
+			}
+		}
+		if (fields.length > 4) state = GameState.withHalfmoveClock(state, Integer.parseInt(fields[4]));
+		if (fields.length > 5) state = GameState.withFullmoveNumber(state, Integer.parseInt(fields[5]));
+		board.setState(state);
+		board.computeAttackedSquares();
+		return board;
+	}
+	
+	/**
+	 * Returns the position in Forsyth-Edwards Notation, see {@link #fromFen(String)}
+	 * @return
+	 */
+	public String toFen() {
+		StringBuilder fen = new StringBuilder();
+		for (int rank = 7; rank >= 0; rank--) {
+			int empty = 0;
+			for (int file = 0; file < 8; file++) {
+				Piece piece = squares[rank * 8 + file];
+				if (piece == null) {
+					empty++;
+					continue;
+				}
+				if (empty > 0) fen.append(empty);
+				empty = 0;
+				char letter = piece.getType().getLetter();
+				fen.append(piece.isBlack() ? Character.toLowerCase(letter) : letter);
+			}
+			if (empty > 0) fen.append(empty);
+			if (rank > 0) fen.append('/');
+		}
+		fen.append(getTurn().equals(Colour.WHITE) ? " w " : " b ");
+		int rights = getCastlingRights();
+		if (rights == 0) fen.append('-');
+		if ((rights & GameState.WHITE_KINGSIDE) != 0) fen.append('K');
+		if ((rights & GameState.WHITE_QUEENSIDE) != 0) fen.append('Q');
+		if ((rights & GameState.BLACK_KINGSIDE) != 0) fen.append('k');
+		if ((rights & GameState.BLACK_QUEENSIDE) != 0) fen.append('q');
+		int enPassant = getEnPassantSquare();
+		fen.append(' ').append(enPassant < 0 ? "-" : Coordinate.valueOf(enPassant).toString().toLowerCase());
+		return fen.append(' ').append(getHalfmoveClock()).append(' ').append(getFullmoveNumber()).toString();
+	}
+	
+	/**
+	 * Returns true if the given colour is under check and has no legal moves
+	 * @param colour
+	 * @return
+	 */
+	public boolean isCheckmate(Colour colour) {
+		return isCheck(colour) && getLegalMoves(colour).isEmpty();
+	}
+	
+	/**
+	 * Returns true if the given colour is not under check but has no legal moves
+	 * @param colour
+	 * @return
+	 */
+	public boolean isStalemate(Colour colour) {
+		return !isCheck(colour) && getLegalMoves(colour).isEmpty();
+	}
+	
+	/**
+	 * Applies an encoded move, the move is recorded so it can be taken back with {@link #unmakeMove()}.
+	 * The move is not validated, it should come from {@link #getLegalMoves(Colour)}
+	 * @param move
+	 */
+	public void makeMove(int move) {
+		int from = Move.getFrom(move), to = Move.getTo(move);
+		Piece piece = squares[from];
+		int capturedSquare = Move.isEnPassant(move) ? (to & 7) | (from & ~7) : to;
+		Piece captured = squares[capturedSquare];
+		if (ply == undoMoves.length) {
+			undoMoves = Arrays.copyOf(undoMoves, ply * 2);
+			undoCaptures = Arrays.copyOf(undoCaptures, ply * 2);
+			undoMoved = Arrays.copyOf(undoMoved, ply * 2);
+			undoStates = Arrays.copyOf(undoStates, ply * 2);
+		}
+		if (historySize == hashHistory.length) {
+			hashHistory = Arrays.copyOf(hashHistory, historySize * 2);
+		}
+		undoMoves[ply] = move;
+		undoCaptures[ply] = captured;
+		undoMoved[ply] = piece.moved();
+		undoStates[ply] = state;
+		ply++;
+		long h = getHash();
+		hashHistory[historySize++] = h;
+		h ^= Zobrist.piece(piece, from) ^ Zobrist.state(state);
+		if (captured != null) {
+			h ^= Zobrist.piece(captured, capturedSquare);
+			squares[capturedSquare] = null;
+		}
+		squares[from] = null;
+		squares[to] = piece;
+		piece.setPosition(Coordinate.valueOf(to));
+		piece.setMoved(true);
+		PieceType promotion = Move.getPromotion(move);
+		if (promotion != null) {
+			piece.setType(promotion);
+		} else if (Move.isCastling(move)) {
+			int rookFrom = (to > from) ? from + 3 : from - 4;
+			int rookTo = (to > from) ? from + 1 : from - 1;
+			Piece rook = squares[rookFrom];
+			squares[rookFrom] = null;
+			squares[rookTo] = rook;
+			rook.setPosition(Coordinate.valueOf(rookTo));
+			rook.setMoved(true);
+			h ^= Zobrist.piece(rook, rookFrom) ^ Zobrist.piece(rook, rookTo);
+		}
+		state = nextState(state, piece, from, to, captured != null);
+		hash = h ^ Zobrist.piece(piece, to) ^ Zobrist.state(state);
+		movesChanged();
+	}
+	
+	/**
+	 * Takes back the last move applied with {@link #makeMove(int)}
+	 */
+	public void unmakeMove() {
+		ply--;
+		int move = undoMoves[ply];
+		int from = Move.getFrom(move), to = Move.getTo(move);
+		Piece piece = squares[to];
+		squares[from] = piece;
+		if (Move.isEnPassant(move)) {
+			squares[to] = null;
+			squares[(to & 7) | (from & ~7)] = undoCaptures[ply];
+		} else {
+			squares[to] = undoCaptures[ply];
+		}
+		undoCaptures[ply] = null;
+		piece.setPosition(Coordinate.valueOf(from));
+		piece.setMoved(undoMoved[ply]);
+		if (Move.getPromotion(move) != null) {
+			piece.setType(PieceType.PAWN);
+		} else if (Move.isCastling(move)) {
+			int rookFrom = (to > from) ? from + 3 : from - 4;
+			int rookTo = (to > from) ? from + 1 : from - 1;
+			Piece rook = squares[rookTo];
+			squares[rookTo] = null;
+			squares[rookFrom] = rook;
+			rook.setPosition(Coordinate.valueOf(rookFrom));
+			rook.setMoved(false);
+		}
+		state = undoStates[ply];
+		hash = hashHistory[--historySize];
+		hashChanged = false;
+		movesChanged();
+	}
+	
+	/**
+	 * Returns the game state after the piece has moved, the piece already stands on the to square.
+	 * A double pawn push only records the en passant file when an enemy pawn stands beside it,
+	 * so positions that differ only by an en passant capture nobody can make hash the same
+	 */
+	private long nextState(long previous, Piece piece, int from, int to, boolean capture) {
+		boolean pawn = piece.getType().equals(PieceType.PAWN);
+		int rights = GameState.castlingRightsAfter(GameState.getCastlingRights(previous), from);
+		long next = GameState.withCastlingRights(previous, GameState.castlingRightsAfter(rights, to));
+		int file = -1;
+		if (pawn && Math.abs(to - from) == 16 && (isEnemyPawn(to - 1, piece) || isEnemyPawn(to + 1, piece))) {
+			file = to & 7;
+		}
+		next = GameState.withEnPassantFile(next, file);
+		next = GameState.withHalfmoveClock(next, (capture || pawn) ? 0 : GameState.getHalfmoveClock(previous) + 1);
+		if (piece.isBlack()) next = GameState.withFullmoveNumber(next, GameState.getFullmoveNumber(previous) + 1);
+		return GameState.withTurn(next, piece.oppositePlayer());
+	}
+	
+	private boolean isEnemyPawn(int square, Piece pawn) {
+		if (square < 0 || square > 63 || (square >> 3) != (pawn.getPosition().getSquare() >> 3)) return false;
+		Piece p = squares[square];
+		return p != null && p.getType().equals(PieceType.PAWN) && !p.getColour().equals(pawn.getColour());
 	}
 	
 	/**
@@ -234,7 +930,7 @@ public class ChessBoard implements Cloneable {
 		for (int row = 8; row >= 1; row--) {
 			buff.append("\t" + row + "  | ");
 			for (int col = 1; col <= 8; col++) {
-				Piece piece = getPieceAt(new Coordinate(col, row));
+				Piece piece = squares[(row - 1) * 8 + (col - 1)];
 				if (piece == null) {
 					buff.append("- | ");
 				} else {
@@ -248,15 +944,18 @@ public class ChessBoard implements Cloneable {
 	}
 	
 	
+	/**
+	 * Returns an independent deep copy of the board
+	 * @return
+	 */
+	public ChessBoard copy() {
+		return new ChessBoard(this);
+	}
+	
 	public Object clone() {
 		try {
 			ChessBoard clonedBoard = (ChessBoard) super.clone();
-			for (Coordinate coord : clonedBoard.positions.keySet()) {
-				Piece p = clonedBoard.getPieceAt(coord);
-				if (p != null) {
-					clonedBoard.setPieceAt(coord, new Piece(coord, p.getType(), p.getColour()));
-				}
-			}
+			clonedBoard.copyFrom(this);
 			return clonedBoard;
 		} catch (CloneNotSupportedException e) {
 			e.printStackTrace();
@@ -264,13 +963,227 @@ public class ChessBoard implements Cloneable {
 		}
 	}
 	
+	/**
+	 * Copies the state of the given board into this board without sharing any mutable state,
+	 * the attacked coordinates are copied rather than recomputed and the copy starts with no moves to take back
+	 * @param board
+	 */
+	private void copyFrom(ChessBoard board) {
+		squares = new Piece[64];
+		attackedSquares = new long[2];
+		legalMoves = new MoveList[2];
+		legalMovesCurrent = new boolean[2];
+		hashHistory = new long[board.hashHistory.length];
+		copyPosition(board);
+		ply = 0;
+		undoMoves = new int[64];
+		undoCaptures = new Piece[64];
+		undoMoved = new boolean[64];
+		undoStates = new long[64];
+		spareMoves = new MoveList();
+		// a stream has a single writer so copies never publish to the original's stream
+		eventStream = null;
+	}
+	
+	/**
+	 * Copies the position of the given board into this board's own arrays, the pieces are duplicated
+	 * and so are the legal move lists, a caller changing one board's list cannot affect another board
+	 * @param board
+	 */
+	private void copyPosition(ChessBoard board) {
+		for (int i = 0; i < 64; i++) {
+			Piece piece = board.squares[i];
+			squares[i] = (piece != null) ? new Piece(piece) : null;
+		}
+		capture = (board.capture != null) ? new Piece(board.capture) : null;
+		check = board.check;
+		state = board.state;
+		savedState = board.savedState;
+		attackedSquares[0] = board.attackedSquares[0];
+		attackedSquares[1] = board.attackedSquares[1];
+		attacksChanged = board.attacksChanged;
+		for (int i = 0; i < 2; i++) {
+			legalMovesCurrent[i] = board.legalMovesCurrent[i];
+			legalMoves[i] = board.legalMovesCurrent[i] ? new MoveList(board.legalMoves[i]) : null;
+		}
+		hash = board.hash;
+		hashChanged = board.hashChanged;
+		historySize = board.historySize;
+		if (hashHistory.length < historySize) hashHistory = new long[board.hashHistory.length];
+		System.arraycopy(board.hashHistory, 0, hashHistory, 0, historySize);
+	}
+	
+	/**
+	 * Called whenever a piece is placed, moved or removed outside of makeMove, the memoized legal moves,
+	 * attacked squares and hash no longer describe the position
+	 */
+	private void positionChanged() {
+		movesChanged();
+		hashChanged = true;
+	}
+	
+	/**
+	 * Called when a move is made or taken back, the hash is kept up to date by the move itself
+	 */
+	private void movesChanged() {
+		legalMovesCurrent[0] = false;
+		legalMovesCurrent[1] = false;
+		attacksChanged = true;
+	}
+	
+	/**
+	 * Returns the squares attacked by a piece standing on the given square
+	 * @param square
+	 * @param piece
+	 * @return
+	 */
+	private long attacksFrom(int square, Piece piece) {
+		PieceType type = piece.getType();
+		if (type.equals(PieceType.PAWN)) {
+			return Squares.PAWN_ATTACKS[piece.getColour().ordinal()][square];
+		} else if (type.equals(PieceType.KNIGHT)) {
+			return Squares.KNIGHT_ATTACKS[square];
+		} else if (type.equals(PieceType.KING)) {
+			return Squares.KING_ATTACKS[square];
+		}
+		long mask = 0L;
+		if (!type.equals(PieceType.BISHOP)) mask |= rays(square, Squares.ROOK_DIRECTIONS);
+		if (!type.equals(PieceType.ROOK)) mask |= rays(square, Squares.BISHOP_DIRECTIONS);
+		return mask;
+	}
+	
+	private long rays(int square, int[][] directions) {
+		long mask = 0L;
+		for (int[] direction : directions) {
+			int target = square;
+			while ((target = Squares.offset(target, direction[0], direction[1])) >= 0) {
+				mask |= Squares.bit(target);
+				if (squares[target] != null) break;
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Returns the pieces of both colours attacking the square when only the given squares are occupied
+	 */
+	private long attackersTo(int square, long occupied) {
+		long attackers = sliderAttackersTo(square, occupied);
+		attackers |= pieces(Squares.PAWN_ATTACKS[Colour.BLACK.ordinal()][square], PieceType.PAWN, Colour.WHITE);
+		attackers |= pieces(Squares.PAWN_ATTACKS[Colour.WHITE.ordinal()][square], PieceType.PAWN, Colour.BLACK);
+		attackers |= pieces(Squares.KNIGHT_ATTACKS[square], PieceType.KNIGHT, null);
+		attackers |= pieces(Squares.KING_ATTACKS[square], PieceType.KING, null);
+		return attackers & occupied;
+	}
+	
+	private long sliderAttackersTo(int square, long occupied) {
+		return sliders(square, occupied, Squares.ROOK_DIRECTIONS, PieceType.ROOK)
+				| sliders(square, occupied, Squares.BISHOP_DIRECTIONS, PieceType.BISHOP);
+	}
+	
+	/**
+	 * Walks each direction from the square to the first occupied square and keeps it
+	 * if it holds the given slider type or a queen
+	 */
+	private long sliders(int square, long occupied, int[][] directions, PieceType type) {
+		long mask = 0L;
+		for (int[] direction : directions) {
+			int target = square;
+			while ((target = Squares.offset(target, direction[0], direction[1])) >= 0) {
+				if ((occupied & Squares.bit(target)) == 0) continue;
+				Piece p = squares[target];
+				if (p.getType().equals(type) || p.getType().equals(PieceType.QUEEN)) mask |= Squares.bit(target);
+				break;
+			}
+		}
+		return mask;
+	}
+	
+	/**
+	 * Returns the squares among the candidates holding a piece of the given type and colour, any colour if null
+	 */
+	private long pieces(long candidates, PieceType type, Colour colour) {
+		long mask = 0L;
+		while (candidates != 0) {
+			int square = Long.numberOfTrailingZeros(candidates);
+			Piece p = squares[square];
+			if (p != null && p.getType().equals(type) && (colour == null || p.getColour().equals(colour))) {
+				mask |= Squares.bit(square);
+			}
+			candidates &= candidates - 1;
+		}
+		return mask;
+	}
+	
+	private int leastValuableAttacker(long attackers, Colour colour) {
+		int best = -1;
+		while (attackers != 0) {
+			int square = Long.numberOfTrailingZeros(attackers);
+			Piece p = squares[square];
+			if (p.getColour().equals(colour) 
+					&& (best < 0 || p.getType().getValue() < squares[best].getType().getValue())) {
+				best = square;
+			}
+			attackers &= attackers - 1;
+		}
+		return best;
+	}
+	
+	private boolean findAttacker(long candidates, PieceType type, Colour colour) {
+		while (candidates != 0) {
+			Piece p = squares[Long.numberOfTrailingZeros(candidates)];
+			if (p != null && p.getType().equals(type) && p.getColour().equals(colour)) return true;
+			candidates &= candidates - 1;
+		}
+		return false;
+	}
+	
+	/**
+	 * Walks each direction from the square until the first piece, which attacks the square
+	 * if it is of the given colour and is either the given slider type or a queen
+	 */
+	private boolean findSlider(int square, int[][] directions, PieceType type, Colour colour) {
+		for (int[] direction : directions) {
+			int target = square;
+			while ((target = Squares.offset(target, direction[0], direction[1])) >= 0) {
+				Piece p = squares[target];
+				if (p != null) {
+					if (p.getColour().equals(colour) 
+							&& (p.getType().equals(type) || p.getType().equals(PieceType.QUEEN))) {
+						return true;
+					}
+					break;
+				}
+			}
+		}
+		return false;
+	}
+	
+	int kingSquare(Colour colour) {
+		for (int square = 0; square < 64; square++) {
+			Piece p = squares[square];
+			if (p != null && p.getType().equals(PieceType.KING) && p.getColour().equals(colour)) return square;
+		}
+		return -1;
+	}
+	
 	private void addPiece(int column, int row, PieceType type) {
-		Coordinate coord = new Coordinate(column, row);
+		Coordinate coord = Coordinate.valueOf((row - 1) * 8 + (column - 1));
 		Colour colour = ((row < 3) ? Colour.WHITE : Colour.BLACK);
-		positions.put(coord, new Piece(coord, type, colour));
+		squares[coord.getSquare()] = new Piece(coord, type, colour);
 	}
 	
 	
+	private static ChessBoard createInitialPosition() {
+		ChessBoard board = new ChessBoard(Colour.WHITE);
+		board.state = GameState.INITIAL;
+		board.init();
+		board.getLegalMoves(Colour.WHITE);
+		board.computeAttackedSquares();
+		board.getHash();
+		return board;
+	}
+	
 	private void init() {
 		int[] columns = {1,2,3,4,5,6,7,8};
 		int[] rows = {1,2,7,8};
@@ -8,6 +8,14 @@ import java.util.List;
  *
  */
 public class Coordinate {
+	private static final Coordinate[] SQUARES = new Coordinate[64];
+	
+	static {
+		for (int square = 0; square < 64; square++) {
+			SQUARES[square] = new Coordinate((square & 7) + 1, (square >> 3) + 1);
+		}
+	}
+	
 	protected Integer y;
 	protected Integer x;
 	
@@ -29,6 +37,25 @@ public class Coordinate {
 		return y;
 	}
 	
+	/**
+	 * Returns the square index (0 for A1 up to 63 for H8) of the coordinate,
+	 * or -1 if the coordinate is off the board
+	 * @return
+	 */
+	public int getSquare() {
+		if (x < 1 || y < 1 || x > 8 || y > 8) return -1;
+		return (x - 1) * 8 + (y - 1);
+	}
+	
+	/**
+	 * Returns the shared coordinate instance for a square index
+	 * @param square 0 for A1 up to 63 for H8
+	 * @return
+	 */
+	public static Coordinate valueOf(int square) {
+		return SQUARES[square];
+	}
+	
 	
 	public boolean equals(Object o) {
 		if (o instanceof Coordinate) {
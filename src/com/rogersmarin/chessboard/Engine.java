@@ -0,0 +1,23 @@
+package com.rogersmarin.chessboard;
+
+/**
+ * Interface for anything that picks moves for the side to move on a board
+ * @author roger
+ *
+ */
+public interface Engine {
+
+	/**
+	 * Returns the move to play for the side to move, or Move.NONE if there is no legal move.
+	 * The board must be left in the position it was given in
+	 * @param board
+	 * @return
+	 */
+	int chooseMove(ChessBoard board);
+
+	/**
+	 * Returns a short name for reports
+	 * @return
+	 */
+	String getName();
+}
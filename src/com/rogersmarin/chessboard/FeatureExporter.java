@@ -0,0 +1,435 @@
+package com.rogersmarin.chessboard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports the positions of recorded games as training features. Games are read one per line as
+ * coordinate moves e.g e2e4 e7e5 g1f3, optionally ending with the result 1-0, 0-1, 1/2-1/2 or *.
+ * Without a result the final position decides it, checkmate or a draw, otherwise it is unknown.
+ *
+ * One thread reads the games, worker threads replay them into chunks and one thread writes full
+ * chunks. Chunks are direct buffers taken from a fixed pool and handed back once written, and all
+ * the queues between the stages are bounded, so memory use is fixed and nothing is allocated per
+ * position.
+ *
+ * The file starts with the magic number, the format version and the rows per chunk, {@link #HEADER_BYTES}
+ * in all, followed by chunks of {@link #chunkBytes(int)} bytes so chunk n can be mapped on its own. A chunk
+ * holds its row count and a padding int, then one column after another, each with room for every row
+ * of the chunk: 12 piece planes, the squares attacked by white, the squares attacked by black (longs),
+ * the game number (int), the ply (short), the side to move (byte, 0 for white) and the game result
+ * (byte, from white's point of view). Plane n holds the pieces of colour n / 6 and type n % 6 in
+ * PieceType order, bit 0 is A1. Values are little endian.
+ * @author roger
+ *
+ */
+public class FeatureExporter {
+
+	public static final long MAGIC = 0x3154414546424343L;
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 16;
+	public static final int PLANES = 12;
+	/** Result of a game that was not finished */
+	public static final byte UNKNOWN = 127;
+
+	private static final int ROW_BYTES = (PLANES + 2) * 8 + 4 + 2 + 1 + 1;
+	private static final String END = new String("end");
+
+	private final int rowsPerChunk;
+	private final int threads;
+	private final AtomicLong games = new AtomicLong();
+	private final AtomicLong positions = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * @param rowsPerChunk positions in each chunk, a multiple of 8
+	 * @param threads the number of threads replaying games
+	 */
+	public FeatureExporter(int rowsPerChunk, int threads) {
+		this.rowsPerChunk = (rowsPerChunk + 7) & ~7;
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns the number of games exported by the last export
+	 * @return
+	 */
+	public long getGames() {
+		return games.get();
+	}
+
+	public long getPositions() {
+		return positions.get();
+	}
+
+	/**
+	 * Returns the number of games in the last export that were not valid or could not be replayed
+	 * @return
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * Returns the size of a chunk holding the given number of rows
+	 * @param rowsPerChunk
+	 * @return
+	 */
+	public static int chunkBytes(int rowsPerChunk) {
+		return 8 + rowsPerChunk * ROW_BYTES;
+	}
+
+	/**
+	 * Exports every game in the input
+	 * @param input
+	 * @param output replaced if it exists
+	 * @param report where the totals and rates are printed, or null
+	 * @throws Exception
+	 */
+	public void export(File input, File output, PrintStream report) throws Exception {
+		long start = System.nanoTime();
+		games.set(0);
+		positions.set(0);
+		errors.set(0);
+		final BlockingQueue<String> lines = new ArrayBlockingQueue<String>(threads * 16);
+		final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(threads * 2 + 2);
+		final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(threads * 2 + 2);
+		for (int i = 0; i < threads * 2 + 2; i++) {
+			free.add(ByteBuffer.allocateDirect(chunkBytes(rowsPerChunk)).order(ByteOrder.LITTLE_ENDIAN));
+		}
+		// opened first so a missing input leaves the last export in place and starts no threads
+		BufferedReader in = new BufferedReader(new FileReader(input));
+		try {
+			output.delete();
+			RandomAccessFile file = new RandomAccessFile(output, "rw");
+			final FileChannel channel = file.getChannel();
+			final IOException[] writeError = new IOException[1];
+			Thread writer = new Thread(new Runnable() {
+				public void run() {
+					try {
+						ByteBuffer chunk;
+						while ((chunk = full.take()).capacity() > 0) {
+							try {
+								if (writeError[0] == null) {
+									chunk.clear();
+									while (chunk.hasRemaining()) {
+										channel.write(chunk);
+									}
+								}
+							} catch (IOException e) {
+								writeError[0] = e;
+							}
+							free.put(chunk);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, "feature-writer");
+			List<Thread> workers = new ArrayList<Thread>();
+			try {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				header.putLong(MAGIC).putInt(VERSION).putInt(rowsPerChunk).flip();
+				channel.write(header);
+				writer.start();
+				for (int i = 0; i < threads; i++) {
+					Thread worker = new Thread(new Runnable() {
+						public void run() {
+							try {
+								replayGames(lines, free, full);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+						}
+					}, "feature-worker-" + i);
+					worker.start();
+					workers.add(worker);
+				}
+				try {
+					String line;
+					int number = 0;
+					while ((line = in.readLine()) != null) {
+						number++;
+						line = line.trim();
+						if (line.length() == 0 || line.startsWith("#")) continue;
+						lines.put(number + " " + line);
+					}
+				} finally {
+					for (int i = 0; i < threads; i++) {
+						lines.put(END);
+					}
+					for (Thread worker : workers) {
+						worker.join();
+					}
+					full.put(ByteBuffer.allocate(0));
+					writer.join();
+				}
+				if (writeError[0] != null) throw writeError[0];
+				channel.force(false);
+			} finally {
+				file.close();
+			}
+		} finally {
+			in.close();
+		}
+		if (report == null) return;
+		long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+		report.println(games.get() + " games, " + positions.get() + " positions, " + errors.get() + " invalid games in "
+				+ millis + "ms, " + positions.get() * 1000 / millis + " positions/s, "
+				+ output.length() * 1000 / millis / 1024 / 1024 + "MB/s");
+	}
+
+	/**
+	 * Replays games until the end marker, filling a chunk at a time. A game that fails is counted as
+	 * an error and the worker carries on, so the reader and the chunk pool never wait on a thread that
+	 * has died. Every move is checked before a game's first row is written, so only a failure while
+	 * writing rows can leave part of a game: its rows still in the worker's chunk are dropped but
+	 * those in chunks already handed to the writer stay in the file
+	 */
+	private void replayGames(BlockingQueue<String> lines, BlockingQueue<ByteBuffer> free, BlockingQueue<ByteBuffer> full) throws InterruptedException {
+		ChessBoard board = null;
+		int[] moves = new int[256];
+		ByteBuffer chunk = free.take();
+		int rows = 0;
+		String line;
+		while ((line = lines.take()) != END) {
+			ByteBuffer gameChunk = chunk;
+			int gameRows = rows;
+			try {
+				String[] tokens = line.split("\\s+");
+				int game = Integer.parseInt(tokens[0]);
+				int count = 0;
+				byte result = UNKNOWN;
+				boolean valid = true;
+				if (board == null) {
+					board = new ChessBoard();
+				} else {
+					board.reset();
+				}
+				for (int i = 1; i < tokens.length && valid; i++) {
+					if (tokens[i].equals("1-0")) result = 1;
+					else if (tokens[i].equals("0-1")) result = -1;
+					else if (tokens[i].equals("1/2-1/2")) result = 0;
+					else if (!tokens[i].equals("*")) {
+						int move = board.parseMove(tokens[i]);
+						if (move == Move.NONE) {
+							valid = false;
+						} else {
+							if (count == moves.length) moves = Arrays.copyOf(moves, count * 2);
+							moves[count++] = move;
+							board.makeMove(move);
+						}
+					}
+				}
+				if (!valid) {
+					errors.incrementAndGet();
+					continue;
+				}
+				if (result == UNKNOWN) result = result(board);
+				for (int i = 0; i < count; i++) {
+					board.unmakeMove();
+				}
+				for (int ply = 0; ply <= count; ply++) {
+					writeRow(chunk, rows++, board, game, ply, result);
+					if (rows == rowsPerChunk) {
+						chunk.putInt(0, rows);
+						full.put(chunk);
+						chunk = free.take();
+						rows = 0;
+					}
+					if (ply < count) board.makeMove(moves[ply]);
+				}
+				games.incrementAndGet();
+				positions.addAndGet(count + 1);
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				errors.incrementAndGet();
+				// the board may be left part way through a move, the next game starts on a new one
+				board = null;
+				if (chunk == gameChunk) rows = gameRows;
+			}
+		}
+		if (rows > 0) {
+			clearRows(chunk, rows);
+			chunk.putInt(0, rows);
+			full.put(chunk);
+		} else {
+			free.put(chunk);
+		}
+	}
+
+	/**
+	 * Clears the unused rows of the last chunk of a worker so the file holds no stale positions
+	 */
+	private void clearRows(ByteBuffer chunk, int from) {
+		for (int column = 0; column < PLANES + 2; column++) {
+			for (int row = from; row < rowsPerChunk; row++) {
+				chunk.putLong(longColumn(rowsPerChunk, column) + row * 8, 0L);
+			}
+		}
+		for (int offset = gameColumn(rowsPerChunk) + from * 4; offset < gameColumn(rowsPerChunk) + rowsPerChunk * 4; offset += 4) {
+			chunk.putInt(offset, 0);
+		}
+		for (int row = from; row < rowsPerChunk; row++) {
+			chunk.putShort(plyColumn(rowsPerChunk) + row * 2, (short) 0);
+			chunk.put(turnColumn(rowsPerChunk) + row, (byte) 0);
+			chunk.put(resultColumn(rowsPerChunk) + row, (byte) 0);
+		}
+	}
+
+	private void writeRow(ByteBuffer chunk, int row, ChessBoard board, int game, int ply, byte result) {
+		for (int plane = 0; plane < PLANES; plane++) {
+			chunk.putLong(longColumn(rowsPerChunk, plane) + row * 8, 0L);
+		}
+		for (int square = 0; square < 64; square++) {
+			Piece piece = board.pieceAt(square);
+			if (piece != null) {
+				int offset = longColumn(rowsPerChunk, piece.getColour().ordinal() * 6 + piece.getType().ordinal()) + row * 8;
+				chunk.putLong(offset, chunk.getLong(offset) | 1L << square);
+			}
+		}
+		// getAttackedSquares(colour) holds the squares the other colour attacks
+		chunk.putLong(longColumn(rowsPerChunk, PLANES) + row * 8, board.getAttackedSquares(Colour.BLACK));
+		chunk.putLong(longColumn(rowsPerChunk, PLANES + 1) + row * 8, board.getAttackedSquares(Colour.WHITE));
+		chunk.putInt(gameColumn(rowsPerChunk) + row * 4, game);
+		chunk.putShort(plyColumn(rowsPerChunk) + row * 2, (short) ply);
+		chunk.put(turnColumn(rowsPerChunk) + row, (byte) board.getTurn().ordinal());
+		chunk.put(resultColumn(rowsPerChunk) + row, result);
+	}
+
+	/**
+	 * Returns the offset in a chunk of a column of longs, the planes then the attacks of white and black
+	 */
+	private static int longColumn(int rowsPerChunk, int column) {
+		return 8 + column * rowsPerChunk * 8;
+	}
+
+	private static int gameColumn(int rowsPerChunk) {
+		return longColumn(rowsPerChunk, PLANES + 2);
+	}
+
+	private static int plyColumn(int rowsPerChunk) {
+		return gameColumn(rowsPerChunk) + rowsPerChunk * 4;
+	}
+
+	private static int turnColumn(int rowsPerChunk) {
+		return plyColumn(rowsPerChunk) + rowsPerChunk * 2;
+	}
+
+	private static int resultColumn(int rowsPerChunk) {
+		return turnColumn(rowsPerChunk) + rowsPerChunk;
+	}
+
+	private static byte result(ChessBoard board) {
+		Colour turn = board.getTurn();
+		if (board.isCheckmate(turn)) return turn.equals(Colour.WHITE) ? (byte) -1 : (byte) 1;
+		if (board.isStalemate(turn) || board.isThreefoldRepetition() || board.isFiftyMoveDraw()) return 0;
+		return UNKNOWN;
+	}
+
+	/**
+	 * Class that reads an exported file through memory mapped chunks
+	 */
+	public static class Reader {
+		private final int rowsPerChunk;
+		private final MappedByteBuffer[] chunks;
+
+		public Reader(File file) throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				channel.read(header, 0);
+				if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) throw new IOException(file + " is not a feature file");
+				rowsPerChunk = header.getInt(12);
+				int size = chunkBytes(rowsPerChunk);
+				chunks = new MappedByteBuffer[(int) ((channel.size() - HEADER_BYTES) / size)];
+				for (int i = 0; i < chunks.length; i++) {
+					chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + (long) i * size, size);
+					chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+				}
+			} finally {
+				raf.close();
+			}
+		}
+
+		public int getChunks() {
+			return chunks.length;
+		}
+
+		public int getRows(int chunk) {
+			return chunks[chunk].getInt(0);
+		}
+
+		public long getPlane(int chunk, int row, int plane) {
+			return chunks[chunk].getLong(longColumn(rowsPerChunk, plane) + row * 8);
+		}
+
+		/**
+		 * Returns the squares attacked by the given colour
+		 * @param chunk
+		 * @param row
+		 * @param colour
+		 * @return
+		 */
+		public long getAttacks(int chunk, int row, Colour colour) {
+			return chunks[chunk].getLong(longColumn(rowsPerChunk, PLANES + colour.ordinal()) + row * 8);
+		}
+
+		public int getGame(int chunk, int row) {
+			return chunks[chunk].getInt(gameColumn(rowsPerChunk) + row * 4);
+		}
+
+		public int getPly(int chunk, int row) {
+			return chunks[chunk].getShort(plyColumn(rowsPerChunk) + row * 2);
+		}
+
+		public Colour getTurn(int chunk, int row) {
+			return Colour.values()[chunks[chunk].get(turnColumn(rowsPerChunk) + row)];
+		}
+
+		/**
+		 * Returns 1 if white won, -1 if black won, 0 for a draw or UNKNOWN
+		 * @param chunk
+		 * @param row
+		 * @return
+		 */
+		public byte getResult(int chunk, int row) {
+			return chunks[chunk].get(resultColumn(rowsPerChunk) + row);
+		}
+	}
+
+	/**
+	 * Runs the exporter from the command line
+	 * @param args the games file, the output file, then optional -threads n and -chunk rows
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("usage: FeatureExporter <games> <output> [-threads n] [-chunk rows]");
+			return;
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		int rows = 4096;
+		for (int i = 2; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-threads")) threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-chunk")) rows = Integer.parseInt(args[i + 1]);
+		}
+		new FeatureExporter(rows, threads).export(new File(args[0]), new File(args[1]), System.out);
+	}
+}
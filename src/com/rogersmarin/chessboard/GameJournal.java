@@ -0,0 +1,432 @@
+package com.rogersmarin.chessboard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Append-only journal of the moves played in many games, so the boards of a server can be rebuilt
+ * after a crash. Game threads append records to a shared buffer and a single commit thread writes
+ * everything appended since its last write in one FileChannel write, so games appending while a
+ * write is in progress share the next one. Whether each write is followed by an fsync is set by
+ * the {@link SyncPolicy}. A thread that needs its move on disk waits with {@link #awaitCommitted(long)}.
+ *
+ * Each record is 16 bytes: the game id, the encoded move and a check value, so a record torn by a
+ * crash is recognised and dropped on recovery. A move of Move.NONE starts a game and -1 ends it.
+ * @author roger
+ *
+ */
+public class GameJournal {
+
+	/**
+	 * When written records are forced to the disk
+	 */
+	public enum SyncPolicy {
+		/** Left to the operating system, a crash of the machine can lose recent moves */
+		NONE,
+		/** After every write, a committed move is always on disk */
+		EVERY_COMMIT,
+		/**
+		 * After a write once the sync interval has passed since the last sync, and once the interval has
+		 * passed after the last write before a pause, so no move stays unsynced longer than the interval
+		 */
+		PERIODIC
+	}
+
+	static final int RECORD_BYTES = 16;
+	private static final int END = -1;
+
+	private final FileChannel channel;
+	private final SyncPolicy policy;
+	private final long syncIntervalNanos;
+	private final Object lock = new Object();
+	private final Thread committer;
+	private ByteBuffer pending;
+	private ByteBuffer writing;
+	private long appended;
+	private long committed;
+	private boolean closed;
+	private IOException failure;
+	private long lastSync = System.nanoTime();
+	private long commits, syncs, longestCommitNanos, totalCommitNanos;
+
+	/**
+	 * Opens a journal for appending, creating the file if needed. The records already in the file are
+	 * checked and the file is cut off at the first torn one, so new records are never written after it
+	 * @param file
+	 * @param policy
+	 * @param syncIntervalMillis the time between syncs for SyncPolicy.PERIODIC
+	 * @param maxBatch the most records held waiting for a write, appends wait while it is full
+	 * @throws IOException
+	 */
+	public GameJournal(File file, SyncPolicy policy, long syncIntervalMillis, int maxBatch) throws IOException {
+		this.channel = new RandomAccessFile(file, "rw").getChannel();
+		boolean opened = false;
+		try {
+			long valid = scan(channel, null);
+			if (valid < channel.size()) channel.truncate(valid);
+			channel.position(valid);
+			opened = true;
+		} finally {
+			if (!opened) channel.close();
+		}
+		this.policy = policy;
+		this.syncIntervalNanos = syncIntervalMillis * 1000000L;
+		this.pending = ByteBuffer.allocateDirect(maxBatch * RECORD_BYTES);
+		this.writing = ByteBuffer.allocateDirect(maxBatch * RECORD_BYTES);
+		this.committer = new Thread(new Runnable() {
+			public void run() {
+				commitLoop();
+			}
+		}, "journal-commit");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * Records the start of a game, any earlier game with the same id is forgotten
+	 * @param gameId
+	 * @return the sequence number to wait for
+	 * @throws IOException
+	 */
+	public long startGame(long gameId) throws IOException {
+		return append(gameId, Move.NONE);
+	}
+
+	/**
+	 * Records a move played in a game
+	 * @param gameId
+	 * @param move the encoded move
+	 * @return the sequence number to wait for
+	 * @throws IOException if the journal has failed or is closed
+	 */
+	public long append(long gameId, int move) throws IOException {
+		synchronized (lock) {
+			while (!pending.hasRemaining() && failure == null && !closed) {
+				waitOn(lock);
+			}
+			if (failure != null) throw failure;
+			if (closed) throw new IOException("journal closed");
+			pending.putLong(gameId).putInt(move).putInt(check(gameId, move));
+			appended++;
+			lock.notifyAll();
+			return appended;
+		}
+	}
+
+	/**
+	 * Records the end of a game, it is not rebuilt on recovery
+	 * @param gameId
+	 * @return the sequence number to wait for
+	 * @throws IOException
+	 */
+	public long endGame(long gameId) throws IOException {
+		return append(gameId, END);
+	}
+
+	/**
+	 * Waits until the record with the given sequence number has been written, and synced if the policy
+	 * syncs every commit
+	 * @param sequence
+	 * @throws IOException if the write failed
+	 */
+	public void awaitCommitted(long sequence) throws IOException {
+		synchronized (lock) {
+			while (committed < sequence && failure == null) {
+				waitOn(lock);
+			}
+			if (committed < sequence) throw failure;
+		}
+	}
+
+	/**
+	 * Writes the remaining records, syncs them and closes the file
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if (failure == null) channel.force(false);
+		} finally {
+			channel.close();
+		}
+		if (failure != null) throw failure;
+	}
+
+	/**
+	 * Returns the number of times the file has been forced to the disk, close not included
+	 * @return
+	 */
+	public long getSyncs() {
+		synchronized (lock) {
+			return syncs;
+		}
+	}
+
+	/**
+	 * Returns the writes, syncs and commit times so far e.g for monitoring
+	 * @return
+	 */
+	public String getStats() {
+		synchronized (lock) {
+			return committed + " records in " + commits + " writes, " + syncs + " syncs, "
+					+ String.format("%.1f", commits == 0 ? 0.0 : (double) committed / commits) + " records per write, "
+					+ (commits == 0 ? 0 : totalCommitNanos / commits / 1000) + "us average and "
+					+ longestCommitNanos / 1000 + "us longest write";
+		}
+	}
+
+	private void commitLoop() {
+		boolean unsynced = false;
+		while (true) {
+			long batchEnd;
+			boolean idle;
+			synchronized (lock) {
+				while (pending.position() == 0 && !closed) {
+					if (!unsynced) {
+						waitOn(lock);
+						continue;
+					}
+					long left = lastSync + syncIntervalNanos - System.nanoTime();
+					if (left <= 0) break;
+					waitOn(lock, left);
+				}
+				idle = pending.position() == 0;
+				if (idle && closed) return;
+				ByteBuffer full = pending;
+				pending = writing;
+				writing = full;
+				batchEnd = appended;
+				lock.notifyAll();
+			}
+			long start = System.nanoTime();
+			try {
+				if (idle) {
+					// nothing was appended during the interval, the last writes are synced without waiting for another
+					channel.force(false);
+					lastSync = System.nanoTime();
+					unsynced = false;
+					synchronized (lock) {
+						syncs++;
+					}
+					continue;
+				}
+				writing.flip();
+				while (writing.hasRemaining()) {
+					channel.write(writing);
+				}
+				writing.clear();
+				boolean sync = policy == SyncPolicy.EVERY_COMMIT
+						|| (policy == SyncPolicy.PERIODIC && start - lastSync >= syncIntervalNanos);
+				if (sync) {
+					channel.force(false);
+					lastSync = System.nanoTime();
+				}
+				unsynced = policy == SyncPolicy.PERIODIC && !sync;
+				long took = System.nanoTime() - start;
+				synchronized (lock) {
+					committed = batchEnd;
+					commits++;
+					if (sync) syncs++;
+					totalCommitNanos += took;
+					longestCommitNanos = Math.max(longestCommitNanos, took);
+					lock.notifyAll();
+				}
+			} catch (IOException e) {
+				synchronized (lock) {
+					failure = e;
+					lock.notifyAll();
+				}
+				return;
+			}
+		}
+	}
+
+	private static void waitOn(Object lock) {
+		waitOn(lock, 0);
+	}
+
+	/**
+	 * Waits on the lock for at most the given time, or until notified if it is 0
+	 */
+	private static void waitOn(Object lock, long nanos) {
+		try {
+			lock.wait(nanos / 1000000, (int) (nanos % 1000000));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted waiting for the journal", e);
+		}
+	}
+
+	private static int check(long gameId, int move) {
+		long h = (gameId * 0x9E3779B97F4A7C15L + move) * 0xC2B2AE3D27D4EB4FL;
+		return (int) (h ^ (h >>> 32)) | 1;
+	}
+
+	/**
+	 * Rebuilds the board of every game that was started and not ended. The journal is read once to
+	 * gather each game's moves, then the games are replayed in parallel on their own boards. A torn
+	 * record at the end of the file is cut off so the journal can be appended to again
+	 * @param file
+	 * @param threads
+	 * @return the boards by game id
+	 * @throws Exception
+	 */
+	public static Map<Long, ChessBoard> recover(File file, int threads) throws Exception {
+		final Map<Long, ChessBoard> boards = new ConcurrentHashMap<Long, ChessBoard>();
+		if (!file.isFile()) return boards;
+		Map<Long, GameMoves> games = read(file);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final Map.Entry<Long, GameMoves> game : games.entrySet()) {
+				futures.add(pool.submit(new Runnable() {
+					public void run() {
+						boards.put(game.getKey(), game.getValue().replay());
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return boards;
+	}
+
+	/**
+	 * Rewrites the journal with only the games still in play, so the next recovery only reads those
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void compact(File file) throws IOException {
+		Map<Long, GameMoves> games = read(file);
+		File tmp = new File(file.getPath() + ".tmp");
+		tmp.delete();
+		FileChannel out = new RandomAccessFile(tmp, "rw").getChannel();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES * 4096);
+			for (Map.Entry<Long, GameMoves> game : games.entrySet()) {
+				GameMoves moves = game.getValue();
+				for (int i = -1; i < moves.size; i++) {
+					if (!buffer.hasRemaining()) flush(out, buffer);
+					int move = (i < 0) ? Move.NONE : moves.moves[i];
+					buffer.putLong(game.getKey()).putInt(move).putInt(check(game.getKey(), move));
+				}
+			}
+			flush(out, buffer);
+			out.force(true);
+		} finally {
+			out.close();
+		}
+		// replaced in one step, a crash leaves either the old journal or the new one
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Reads the moves of the games in play, cutting the file at the first record that fails its check
+	 */
+	private static Map<Long, GameMoves> read(File file) throws IOException {
+		Map<Long, GameMoves> games = new HashMap<Long, GameMoves>();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			long valid = scan(channel, games);
+			if (valid < channel.size()) channel.truncate(valid);
+		} finally {
+			raf.close();
+		}
+		return games;
+	}
+
+	/**
+	 * Returns the length of the records before the first torn one, replaying them into the map of
+	 * unfinished games unless it is null
+	 */
+	private static long scan(FileChannel channel, Map<Long, GameMoves> games) throws IOException {
+		long length = channel.size() - channel.size() % RECORD_BYTES;
+		long valid = 0;
+		// mapped in slices so journals larger than 2GB can be read
+		long sliceBytes = RECORD_BYTES * (1L << 24);
+		for (long start = 0; start < length; start += sliceBytes) {
+			MappedByteBuffer slice = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(sliceBytes, length - start));
+			while (slice.hasRemaining()) {
+				long gameId = slice.getLong();
+				int move = slice.getInt();
+				if (slice.getInt() != check(gameId, move)) return valid;
+				valid += RECORD_BYTES;
+				if (games == null) continue;
+				if (move == Move.NONE) {
+					games.put(gameId, new GameMoves());
+				} else if (move == END) {
+					games.remove(gameId);
+				} else {
+					GameMoves moves = games.get(gameId);
+					if (moves != null) moves.add(move);
+				}
+			}
+		}
+		return valid;
+	}
+
+	/**
+	 * Class that represents the moves of one game read from the journal
+	 */
+	private static final class GameMoves {
+		private int[] moves = new int[64];
+		private int size;
+
+		void add(int move) {
+			if (size == moves.length) moves = Arrays.copyOf(moves, size * 2);
+			moves[size++] = move;
+		}
+
+		/**
+		 * Plays the moves on a new board, stopping at the first move that is not legal
+		 */
+		ChessBoard replay() {
+			ChessBoard board;
+			try {
+				board = new ChessBoard();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+			for (int i = 0; i < size; i++) {
+				if (!board.getLegalMoves().contains(moves[i])) break;
+				board.makeMove(moves[i]);
+			}
+			return board;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.rogersmarin.chessboard;
+
+/**
+ * Helpers for the part of a position not held on the squares, packed into a single long so it can be
+ * saved and restored with one assignment. Bit 0 holds the side to move, bits 1-4 the castling rights,
+ * bits 5-8 the en passant file plus one or 0 when there is none, bits 9-18 the halfmove clock and
+ * bits 19-38 the fullmove number
+ * @author roger
+ *
+ */
+public final class GameState {
+
+	public static final int WHITE_KINGSIDE = 1;
+	public static final int WHITE_QUEENSIDE = 2;
+	public static final int BLACK_KINGSIDE = 4;
+	public static final int BLACK_QUEENSIDE = 8;
+	public static final int ALL_CASTLING = 15;
+
+	/** The halfmove clock stops counting here, well past the fifty move rule */
+	static final int MAX_HALFMOVES = 1023;
+
+	private static final int CASTLING_SHIFT = 1;
+	private static final int EN_PASSANT_SHIFT = 5;
+	private static final int HALFMOVE_SHIFT = 9;
+	private static final int FULLMOVE_SHIFT = 19;
+	private static final long FULLMOVE_MASK = (1L << 20) - 1;
+
+	/** White to move with every castling right on the first move */
+	static final long INITIAL = withFullmoveNumber(withCastlingRights(0L, ALL_CASTLING), 1);
+
+	private GameState() {}
+
+	public static Colour getTurn(long state) {
+		return ((state & 1) == 0) ? Colour.WHITE : Colour.BLACK;
+	}
+
+	/**
+	 * Returns the castling rights still held as a combination of the kingside and queenside flags
+	 * @param state
+	 * @return
+	 */
+	public static int getCastlingRights(long state) {
+		return (int) (state >>> CASTLING_SHIFT) & 15;
+	}
+
+	/**
+	 * Returns the file, 0 for A up to 7 for H, of a pawn that can be taken en passant or -1 if there is none
+	 * @param state
+	 * @return
+	 */
+	public static int getEnPassantFile(long state) {
+		return ((int) (state >>> EN_PASSANT_SHIFT) & 15) - 1;
+	}
+
+	public static int getHalfmoveClock(long state) {
+		return (int) (state >>> HALFMOVE_SHIFT) & MAX_HALFMOVES;
+	}
+
+	public static int getFullmoveNumber(long state) {
+		return (int) ((state >>> FULLMOVE_SHIFT) & FULLMOVE_MASK);
+	}
+
+	/**
+	 * Returns true if the given colour may still castle on the given side
+	 * @param state
+	 * @param colour
+	 * @param kingside
+	 * @return
+	 */
+	public static boolean canCastle(long state, Colour colour, boolean kingside) {
+		int right = kingside ? WHITE_KINGSIDE : WHITE_QUEENSIDE;
+		if (colour.equals(Colour.BLACK)) right <<= 2;
+		return (getCastlingRights(state) & right) != 0;
+	}
+
+	static long withTurn(long state, Colour turn) {
+		return (state & ~1L) | (turn.equals(Colour.BLACK) ? 1 : 0);
+	}
+
+	static long withCastlingRights(long state, int rights) {
+		return (state & ~(15L << CASTLING_SHIFT)) | ((long) rights << CASTLING_SHIFT);
+	}
+
+	static long withEnPassantFile(long state, int file) {
+		return (state & ~(15L << EN_PASSANT_SHIFT)) | ((long) (file + 1) << EN_PASSANT_SHIFT);
+	}
+
+	static long withHalfmoveClock(long state, int halfmoves) {
+		return (state & ~((long) MAX_HALFMOVES << HALFMOVE_SHIFT))
+				| ((long) Math.min(halfmoves, MAX_HALFMOVES) << HALFMOVE_SHIFT);
+	}
+
+	static long withFullmoveNumber(long state, int fullmoves) {
+		return (state & ~(FULLMOVE_MASK << FULLMOVE_SHIFT)) | ((fullmoves & FULLMOVE_MASK) << FULLMOVE_SHIFT);
+	}
+
+	/**
+	 * Returns the castling rights left once a piece has moved from or to the square,
+	 * moving a king or a rook or capturing a rook on its corner loses the matching rights
+	 * @param rights
+	 * @param square
+	 * @return
+	 */
+	static int castlingRightsAfter(int rights, int square) {
+		switch (square) {
+		case 0: return rights & ~WHITE_QUEENSIDE;
+		case 4: return rights & ~(WHITE_KINGSIDE | WHITE_QUEENSIDE);
+		case 7: return rights & ~WHITE_KINGSIDE;
+		case 56: return rights & ~BLACK_QUEENSIDE;
+		case 60: return rights & ~(BLACK_KINGSIDE | BLACK_QUEENSIDE);
+		case 63: return rights & ~BLACK_KINGSIDE;
+		default: return rights;
+		}
+	}
+}
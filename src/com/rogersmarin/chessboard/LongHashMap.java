@@ -0,0 +1,257 @@
+package com.rogersmarin.chessboard;
+
+/**
+ * Map from long keys such as position hashes to long values, held in primitive arrays with open
+ * addressing and linear probing so no object is created per entry. It can also be used as a set
+ * through {@link #add(long)} and {@link #contains(long)}.
+ *
+ * Growing never rehashes everything at once, a table that fills up allocates one twice the size and
+ * every following call moves a few entries across until the old table is empty, so no single insert
+ * pays for the whole resize. Entries cannot be removed.
+ *
+ * A map created with more than one stripe splits the keys between independent tables, each guarded
+ * by its own lock, and can be used from many threads. A map with a single stripe is not thread safe.
+ * @author roger
+ *
+ */
+public class LongHashMap {
+
+	/** Returned by {@link #get(long)} and {@link #put(long, long)} when the key is not in the map */
+	public static final long NO_VALUE = Long.MIN_VALUE;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private final Stripe[] stripes;
+	private final boolean concurrent;
+	private final int stripeMask;
+
+	public LongHashMap() {
+		this(MIN_CAPACITY, 1);
+	}
+
+	/**
+	 * @param expected the number of entries expected, the map still grows past it
+	 */
+	public LongHashMap(int expected) {
+		this(expected, 1);
+	}
+
+	/**
+	 * @param expected the number of entries expected, the map still grows past it
+	 * @param stripes the number of independently locked tables, rounded up to a power of two.
+	 * More than one makes the map safe to use from many threads
+	 */
+	public LongHashMap(int expected, int stripes) {
+		int count = (stripes <= 1) ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+		this.stripes = new Stripe[count];
+		this.concurrent = count > 1;
+		this.stripeMask = count - 1;
+		int capacity = tableSize(Math.max(MIN_CAPACITY, expected / count * 2));
+		for (int i = 0; i < count; i++) {
+			this.stripes[i] = new Stripe(capacity);
+		}
+	}
+
+	/**
+	 * Returns the value held for the key or NO_VALUE
+	 * @param key
+	 * @return
+	 */
+	public long get(long key) {
+		long mixed = mix(key);
+		Stripe stripe = stripes[(int) mixed & stripeMask];
+		if (!concurrent) return stripe.get(key, mixed);
+		synchronized (stripe) {
+			return stripe.get(key, mixed);
+		}
+	}
+
+	/**
+	 * Sets the value held for the key
+	 * @param key
+	 * @param value any value but NO_VALUE
+	 * @return the previous value or NO_VALUE if the key is new
+	 */
+	public long put(long key, long value) {
+		return put(key, value, true);
+	}
+
+	/**
+	 * Sets the value held for the key unless it already has one
+	 * @param key
+	 * @param value any value but NO_VALUE
+	 * @return the value already held or NO_VALUE if the key is new
+	 */
+	public long putIfAbsent(long key, long value) {
+		return put(key, value, false);
+	}
+
+	/**
+	 * Adds the key with a value of 0 if it is not already in the map
+	 * @param key
+	 * @return true if the key is new
+	 */
+	public boolean add(long key) {
+		return put(key, 0L, false) == NO_VALUE;
+	}
+
+	public boolean contains(long key) {
+		return get(key) != NO_VALUE;
+	}
+
+	/**
+	 * Returns the number of keys in the map
+	 * @return
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			if (concurrent) {
+				synchronized (stripe) {
+					size += stripe.size;
+				}
+			} else {
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+
+	private long put(long key, long value, boolean replace) {
+		if (value == NO_VALUE) throw new IllegalArgumentException("NO_VALUE cannot be stored");
+		long mixed = mix(key);
+		Stripe stripe = stripes[(int) mixed & stripeMask];
+		if (!concurrent) return stripe.put(key, mixed, value, replace);
+		synchronized (stripe) {
+			return stripe.put(key, mixed, value, replace);
+		}
+	}
+
+	/**
+	 * Spreads the key's bits, the low bits pick the stripe and the high bits the slot
+	 */
+	private static long mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+	private static int tableSize(int entries) {
+		return Integer.highestOneBit(Math.max(MIN_CAPACITY, entries) - 1) << 1;
+	}
+
+	/**
+	 * Class that represents one open addressing table, 0 marks an empty slot so a zero key is held apart
+	 */
+	private static final class Stripe {
+		/** Slots moved from the old table on each call while growing */
+		private static final int MIGRATE_STEP = 16;
+
+		private long[] keys;
+		private long[] values;
+		private int shift;
+		private long[] oldKeys;
+		private long[] oldValues;
+		private int oldShift;
+		private int migrated;
+		private boolean hasZero;
+		private long zeroValue;
+		private int size;
+		private int used;
+
+		Stripe(int capacity) {
+			keys = new long[capacity];
+			values = new long[capacity];
+			shift = 64 - Integer.numberOfTrailingZeros(capacity);
+		}
+
+		long get(long key, long mixed) {
+			if (key == 0) return hasZero ? zeroValue : NO_VALUE;
+			int slot = find(keys, key, mixed, shift);
+			if (keys[slot] == key) return values[slot];
+			if (oldKeys != null) {
+				slot = find(oldKeys, key, mixed, oldShift);
+				if (oldKeys[slot] == key) return oldValues[slot];
+			}
+			return NO_VALUE;
+		}
+
+		long put(long key, long mixed, long value, boolean replace) {
+			if (key == 0) {
+				long previous = hasZero ? zeroValue : NO_VALUE;
+				if (!hasZero || replace) zeroValue = value;
+				if (!hasZero) size++;
+				hasZero = true;
+				return previous;
+			}
+			if (oldKeys != null) migrate();
+			int slot = find(keys, key, mixed, shift);
+			if (keys[slot] == key) {
+				long previous = values[slot];
+				if (replace) values[slot] = value;
+				return previous;
+			}
+			long previous = NO_VALUE;
+			if (oldKeys != null) {
+				int oldSlot = find(oldKeys, key, mixed, oldShift);
+				if (oldKeys[oldSlot] == key) {
+					previous = oldValues[oldSlot];
+					if (!replace) return previous;
+				}
+			}
+			keys[slot] = key;
+			values[slot] = value;
+			used++;
+			if (previous == NO_VALUE) size++;
+			if (used * 2 > keys.length) grow();
+			return previous;
+		}
+
+		/**
+		 * Returns the slot holding the key or the empty slot where it would go
+		 */
+		private static int find(long[] table, long key, long mixed, int shift) {
+			int mask = table.length - 1;
+			int slot = (int) (mixed >>> shift);
+			while (table[slot] != 0 && table[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void grow() {
+			// a resize still in progress is finished first, it is nearly done by the time the new table fills
+			while (oldKeys != null) migrate();
+			oldKeys = keys;
+			oldValues = values;
+			oldShift = shift;
+			migrated = 0;
+			keys = new long[oldKeys.length * 2];
+			values = new long[oldKeys.length * 2];
+			shift--;
+			used = 0;
+		}
+
+		/**
+		 * Copies the next few slots of the old table into the new one, old slots are left in place
+		 * so probe chains stay intact for lookups until the whole table has been moved
+		 */
+		private void migrate() {
+			int end = Math.min(oldKeys.length, migrated + MIGRATE_STEP);
+			for (int i = migrated; i < end; i++) {
+				long key = oldKeys[i];
+				if (key == 0) continue;
+				int slot = find(keys, key, mix(key), shift);
+				if (keys[slot] != key) {
+					keys[slot] = key;
+					values[slot] = oldValues[i];
+					used++;
+				}
+			}
+			migrated = end;
+			if (migrated == oldKeys.length) {
+				oldKeys = null;
+				oldValues = null;
+			}
+		}
+	}
+}
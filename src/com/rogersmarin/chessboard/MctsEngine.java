@@ -0,0 +1,271 @@
+package com.rogersmarin.chessboard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Engine that explores a position with Monte Carlo tree search. Each playout walks down the tree by
+ * UCT, adds the children of the node it reaches and plays random moves from there to checkmate,
+ * stalemate, a draw or a ply limit, then adds the result to every node on the way back up.
+ * Guided playouts try a second random move when the first is quiet, so captures are played more often.
+ *
+ * Playouts run on several threads, each with its own copy of the board. A thread going down a path
+ * counts a virtual loss on each node until its result is added, so the other threads spread out
+ * over different branches instead of all following the same one.
+ * @author roger
+ *
+ */
+public class MctsEngine implements Engine {
+
+	private static final double EXPLORATION = 1.4;
+	/** Results are counted in half points so draws need no fractions */
+	private static final int WIN = 2, DRAW = 1, LOSS = 0;
+
+	private final int playouts;
+	private final int threads;
+	private final int maxPlies;
+	private final boolean guided;
+	private final long seed;
+	private Node root;
+	private long elapsedNanos;
+	private long playoutsDone;
+
+	/**
+	 * @param playouts the number of playouts for each move
+	 * @param threads
+	 * @param maxPlies the length after which a playout is scored by material
+	 * @param guided true to favour captures in playouts
+	 * @param seed
+	 */
+	public MctsEngine(int playouts, int threads, int maxPlies, boolean guided, long seed) {
+		this.playouts = Math.max(1, playouts);
+		this.threads = Math.max(1, threads);
+		this.maxPlies = maxPlies;
+		this.guided = guided;
+		this.seed = seed;
+	}
+
+	public int chooseMove(ChessBoard board) {
+		if (board.getLegalMoves().isEmpty()) return Move.NONE;
+		final Node tree = new Node(null, Move.NONE);
+		final AtomicInteger started = new AtomicInteger();
+		List<Thread> workers = new ArrayList<Thread>();
+		long start = System.nanoTime();
+		for (int i = 0; i < threads; i++) {
+			final ChessBoard copy = board.copy();
+			final Random random = new Random(seed + i);
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					while (started.getAndIncrement() < playouts) {
+						playout(tree, copy, random);
+					}
+				}
+			}, "mcts-" + i);
+			worker.start();
+			workers.add(worker);
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		elapsedNanos = System.nanoTime() - start;
+		playoutsDone = tree.visits.get();
+		root = tree;
+		Node best = null;
+		for (Node child : tree.children) {
+			if (best == null || child.visits.get() > best.visits.get()) best = child;
+		}
+		return best.move;
+	}
+
+	/**
+	 * Runs one playout from the root, the board is left as it was found
+	 */
+	private void playout(Node node, ChessBoard board, Random random) {
+		int depth = 0;
+		node.virtualLosses.incrementAndGet();
+		while (node.parent == null || node.visits.get() > 0) {
+			Node[] children = node.expand(board);
+			if (children.length == 0) break;
+			node = select(node, children);
+			node.virtualLosses.incrementAndGet();
+			board.makeMove(node.move);
+			depth++;
+		}
+		Colour mover = (board.getTurn().equals(Colour.WHITE)) ? Colour.BLACK : Colour.WHITE;
+		int result = simulate(board, random, mover);
+		for (int i = 0; i < depth; i++) {
+			board.unmakeMove();
+		}
+		// the result is for the side that moved into the node and alternates on the way up
+		for (; node != null; node = node.parent) {
+			node.score.addAndGet(result);
+			node.visits.incrementAndGet();
+			node.virtualLosses.decrementAndGet();
+			result = WIN - result;
+		}
+	}
+
+	/**
+	 * Returns the child with the best UCT value, counting virtual losses as visits that were lost
+	 */
+	private static Node select(Node parent, Node[] children) {
+		double logVisits = Math.log(parent.visits.get() + parent.virtualLosses.get());
+		Node best = null;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for (Node child : children) {
+			int visits = child.visits.get() + child.virtualLosses.get();
+			if (visits == 0) return child;
+			double value = child.score.get() / (2.0 * visits) + EXPLORATION * Math.sqrt(logVisits / visits);
+			if (value > bestValue) {
+				bestValue = value;
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Plays random moves to the end of the game or the ply limit and returns the result in half points
+	 * for the given colour
+	 */
+	private int simulate(ChessBoard board, Random random, Colour colour) {
+		int plies = 0;
+		int result;
+		while (true) {
+			MoveList moves = board.getLegalMoves();
+			if (moves.isEmpty()) {
+				if (!board.isCheck(board.getTurn())) result = DRAW;
+				else result = board.getTurn().equals(colour) ? LOSS : WIN;
+				break;
+			}
+			if (board.isThreefoldRepetition() || board.isFiftyMoveDraw()) {
+				result = DRAW;
+				break;
+			}
+			if (plies == maxPlies) {
+				int material = AlphaBetaEngine.evaluate(board);
+				if (!board.getTurn().equals(colour)) material = -material;
+				result = (material >= PieceType.KNIGHT.getValue()) ? WIN : (material <= -PieceType.KNIGHT.getValue()) ? LOSS : DRAW;
+				break;
+			}
+			int move = moves.get(random.nextInt(moves.size()));
+			if (guided && !isCapture(board, move)) move = moves.get(random.nextInt(moves.size()));
+			board.makeMove(move);
+			plies++;
+		}
+		for (int i = 0; i < plies; i++) {
+			board.unmakeMove();
+		}
+		return result;
+	}
+
+	private static boolean isCapture(ChessBoard board, int move) {
+		return board.pieceAt(Move.getTo(move)) != null || Move.isEnPassant(move);
+	}
+
+	/**
+	 * Returns the playouts and their rate for the last search, then the most visited moves with their
+	 * visits and score
+	 * @return
+	 */
+	public String getStats() {
+		if (root == null) return "no search yet";
+		double seconds = Math.max(1, elapsedNanos) / 1e9;
+		StringBuilder stats = new StringBuilder();
+		stats.append(String.format("%d playouts in %dms, %.0f playouts/s, %.0f per thread%n", playoutsDone,
+				elapsedNanos / 1000000, playoutsDone / seconds, playoutsDone / seconds / threads));
+		Node[] children = root.children.clone();
+		Arrays.sort(children, new Comparator<Node>() {
+			public int compare(Node a, Node b) {
+				return b.visits.get() - a.visits.get();
+			}
+		});
+		for (int i = 0; i < Math.min(5, children.length); i++) {
+			int visits = children[i].visits.get();
+			stats.append(String.format("%s %d visits %.1f%%%n", Move.toString(children[i].move), visits,
+					visits == 0 ? 0.0 : 50.0 * children[i].score.get() / visits));
+		}
+		return stats.toString();
+	}
+
+	public String getName() {
+		return "mcts" + playouts;
+	}
+
+	/**
+	 * Class that represents a position in the tree, reached by playing its move from its parent
+	 */
+	private static final class Node {
+		private static final Node[] NONE = new Node[0];
+
+		final Node parent;
+		final int move;
+		final AtomicInteger visits = new AtomicInteger();
+		final AtomicInteger virtualLosses = new AtomicInteger();
+		/** Half points won by the side that played the move into this node */
+		final AtomicLong score = new AtomicLong();
+		private volatile Node[] children;
+
+		Node(Node parent, int move) {
+			this.parent = parent;
+			this.move = move;
+		}
+
+		/**
+		 * Returns the children, creating them on the first call with the board in this node's position
+		 */
+		Node[] expand(ChessBoard board) {
+			Node[] result = children;
+			if (result == null) {
+				synchronized (this) {
+					result = children;
+					if (result == null) {
+						MoveList moves = board.getLegalMoves();
+						result = (moves.isEmpty()) ? NONE : new Node[moves.size()];
+						for (int i = 0; i < result.length; i++) {
+							result[i] = new Node(this, moves.get(i));
+						}
+						children = result;
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Analyses a position from the command line
+	 * @param args optional -fen position, -playouts n, -threads n, -plies n and -random for unguided playouts
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String fen = null;
+		int playouts = 20000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int plies = 200;
+		boolean guided = true;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-random")) guided = false;
+			else if (i + 1 < args.length) {
+				if (args[i].equals("-fen")) fen = args[++i];
+				else if (args[i].equals("-playouts")) playouts = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-threads")) threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-plies")) plies = Integer.parseInt(args[++i]);
+			}
+		}
+		ChessBoard board = (fen != null) ? ChessBoard.fromFen(fen) : new ChessBoard();
+		MctsEngine engine = new MctsEngine(playouts, threads, plies, guided, System.nanoTime());
+		System.out.println("best " + Move.toString(engine.chooseMove(board)));
+		System.out.print(engine.getStats());
+	}
+}
@@ -0,0 +1,99 @@
+package com.rogersmarin.chessboard;
+
+/**
+ * Helpers for moves encoded as a single int so move lists can be held in primitive arrays.
+ * Bits 0-5 hold the from square, bits 6-11 the to square, bits 12-14 the promotion type
+ * and the remaining bits flag special moves
+ * @author roger
+ *
+ */
+public final class Move {
+
+	/** Value that never represents a move */
+	public static final int NONE = 0;
+
+	static final int CASTLING = 1 << 15;
+	static final int EN_PASSANT = 1 << 16;
+
+	private static final PieceType[] PROMOTIONS = {null, PieceType.QUEEN, PieceType.ROOK, PieceType.BISHOP, PieceType.KNIGHT};
+
+	private Move() {}
+
+	/**
+	 * Encodes a plain move between two squares
+	 * @param from 0 for A1 up to 63 for H8
+	 * @param to 0 for A1 up to 63 for H8
+	 * @return
+	 */
+	public static int encode(int from, int to) {
+		return from | (to << 6);
+	}
+
+	static int encode(int from, int to, int flags) {
+		return from | (to << 6) | flags;
+	}
+
+	/**
+	 * Encodes a pawn move that promotes to the given type
+	 * @param from
+	 * @param to
+	 * @param type one of QUEEN, ROOK, BISHOP or KNIGHT
+	 * @return
+	 */
+	public static int promotion(int from, int to, PieceType type) {
+		for (int i = 1; i < PROMOTIONS.length; i++) {
+			if (PROMOTIONS[i] == type) return encode(from, to) | (i << 12);
+		}
+		throw new IllegalArgumentException("invalid promotion type " + type);
+	}
+
+	public static int getFrom(int move) {
+		return move & 63;
+	}
+
+	public static int getTo(int move) {
+		return (move >> 6) & 63;
+	}
+
+	/**
+	 * Returns the type a pawn is promoted to or null if the move is not a promotion
+	 * @param move
+	 * @return
+	 */
+	public static PieceType getPromotion(int move) {
+		return PROMOTIONS[(move >> 12) & 7];
+	}
+
+	public static boolean isCastling(int move) {
+		return (move & CASTLING) != 0;
+	}
+
+	/**
+	 * Returns true if the move is a pawn capturing en passant, the captured pawn is not on the to square
+	 * @param move
+	 * @return
+	 */
+	public static boolean isEnPassant(int move) {
+		return (move & EN_PASSANT) != 0;
+	}
+
+	/**
+	 * Returns the move in coordinate notation e.g e2e4 or e7e8q
+	 * @param move
+	 * @return
+	 */
+	public static String toString(int move) {
+		StringBuilder buff = new StringBuilder(5);
+		appendSquare(buff, getFrom(move));
+		appendSquare(buff, getTo(move));
+		PieceType promotion = getPromotion(move);
+		if (promotion != null) {
+			buff.append(Character.toLowerCase(promotion.getLetter()));
+		}
+		return buff.toString();
+	}
+
+	private static void appendSquare(StringBuilder buff, int square) {
+		buff.append((char) ('a' + (square & 7))).append((char) ('1' + (square >> 3)));
+	}
+}
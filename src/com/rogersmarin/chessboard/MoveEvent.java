@@ -0,0 +1,69 @@
+package com.rogersmarin.chessboard;
+
+/**
+ * Helpers for move events packed into a single long so they can be published without allocating.
+ * Bits 0-16 hold the encoded move, bits 20-23 the captured piece type plus one or 0 for none,
+ * bits 24-26 the MoveResult status after the move and bits 32-63 the number of plies played
+ * @author roger
+ *
+ */
+public final class MoveEvent {
+
+	/** Value that never represents an event */
+	public static final long NONE = 0L;
+
+	private static final PieceType[] TYPES = PieceType.values();
+
+	private MoveEvent() {}
+
+	/**
+	 * Packs a move event
+	 * @param move the encoded move
+	 * @param captured the type of the captured piece or null
+	 * @param status one of the MoveResult status values
+	 * @param ply the number of plies played once the move is made
+	 * @return
+	 */
+	public static long encode(int move, PieceType captured, int status, int ply) {
+		int capturedCode = (captured != null) ? captured.ordinal() + 1 : 0;
+		return (move & 0x1ffff) | ((long) capturedCode << 20) | ((long) status << 24) | ((long) ply << 32);
+	}
+
+	public static int getMove(long event) {
+		return (int) event & 0x1ffff;
+	}
+
+	/**
+	 * Returns the type of the captured piece or null if nothing was captured
+	 * @param event
+	 * @return
+	 */
+	public static PieceType getCaptured(long event) {
+		int code = (int) (event >>> 20) & 15;
+		return (code == 0) ? null : TYPES[code - 1];
+	}
+
+	/**
+	 * Returns the MoveResult status after the move e.g MoveResult.CHECK
+	 * @param event
+	 * @return
+	 */
+	public static int getStatus(long event) {
+		return (int) (event >>> 24) & 7;
+	}
+
+	public static int getPly(long event) {
+		return (int) (event >>> 32);
+	}
+
+	/**
+	 * Returns the event as text e.g 12 e7e8q captures ROOK status 1
+	 * @param event
+	 * @return
+	 */
+	public static String toString(long event) {
+		PieceType captured = getCaptured(event);
+		return getPly(event) + " " + Move.toString(getMove(event))
+				+ ((captured != null) ? " captures " + captured : "") + " status " + getStatus(event);
+	}
+}
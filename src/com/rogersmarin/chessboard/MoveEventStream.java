@@ -0,0 +1,123 @@
+package com.rogersmarin.chessboard;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ring buffer of move events written by one game thread and read by any number of subscribers
+ * without locks. The writer never waits, once the buffer is full each new event overwrites the
+ * oldest one. A subscriber that falls more than a buffer behind is moved forward to the oldest event
+ * still held and the events it lost are counted, so a slow spectator never holds up the game.
+ *
+ * Each slot carries the sequence number of the event in it. The writer clears it before writing
+ * the event and sets it afterwards, and a reader only accepts an event if it sees the expected
+ * sequence both before and after reading it.
+ * @author roger
+ *
+ */
+public class MoveEventStream {
+
+	private static final long WRITING = -1L;
+
+	private final int mask;
+	private final AtomicLongArray events;
+	private final AtomicLongArray sequences;
+	private volatile long published = -1;
+
+	/**
+	 * @param capacity the number of events held, rounded up to a power of two
+	 */
+	public MoveEventStream(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mask = size - 1;
+		events = new AtomicLongArray(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, WRITING);
+		}
+	}
+
+	/**
+	 * Publishes an event, only one thread may publish to a stream
+	 * @param event an event packed by MoveEvent.encode
+	 */
+	public void publish(long event) {
+		long sequence = published + 1;
+		int slot = (int) sequence & mask;
+		sequences.set(slot, WRITING);
+		events.set(slot, event);
+		sequences.set(slot, sequence);
+		published = sequence;
+	}
+
+	/**
+	 * Returns the number of events published so far
+	 * @return
+	 */
+	public long getPublished() {
+		return published + 1;
+	}
+
+	/**
+	 * Returns a subscriber that receives the events published from now on
+	 * @return
+	 */
+	public Subscriber subscribe() {
+		return new Subscriber(published + 1);
+	}
+
+	/**
+	 * Class that represents one reader's position in the stream, each subscriber is used by a single thread
+	 */
+	public class Subscriber {
+		private long next;
+		private long missed;
+
+		private Subscriber(long next) {
+			this.next = next;
+		}
+
+		/**
+		 * Returns the next event or MoveEvent.NONE if there is none yet, never waits
+		 * @return
+		 */
+		public long poll() {
+			while (true) {
+				long latest = published;
+				if (next > latest) return MoveEvent.NONE;
+				long oldest = latest - mask;
+				if (next < oldest) {
+					missed += oldest - next;
+					next = oldest;
+				}
+				int slot = (int) next & mask;
+				if (sequences.get(slot) != next) continue;
+				long event = events.get(slot);
+				if (sequences.get(slot) != next) continue;
+				next++;
+				return event;
+			}
+		}
+
+		/**
+		 * Copies the available events into the array
+		 * @param buffer
+		 * @return the number of events copied
+		 */
+		public int drain(long[] buffer) {
+			int count = 0;
+			long event;
+			while (count < buffer.length && (event = poll()) != MoveEvent.NONE) {
+				buffer[count++] = event;
+			}
+			return count;
+		}
+
+		/**
+		 * Returns the number of events skipped because this subscriber fell too far behind
+		 * @return
+		 */
+		public long getMissed() {
+			return missed;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package com.rogersmarin.chessboard;
+
+/**
+ * Generates the moves available on a board straight from its squares. The moves
+ * are pseudo legal, they may still leave the moving side's king under check
+ * @author roger
+ *
+ */
+final class MoveGenerator {
+
+	private static final PieceType[] PROMOTION_TYPES = {PieceType.QUEEN, PieceType.ROOK, PieceType.BISHOP, PieceType.KNIGHT};
+
+	private MoveGenerator() {}
+
+	/**
+	 * Adds every pseudo legal move for the given colour to the list
+	 * @param board
+	 * @param colour
+	 * @param moves
+	 */
+	static void generate(ChessBoard board, Colour colour, MoveList moves) {
+		generate(board, colour, moves, true, true);
+	}
+
+	/**
+	 * Adds the pseudo legal captures and promotions for the given colour to the list
+	 * @param board
+	 * @param colour
+	 * @param moves
+	 */
+	static void generateCaptures(ChessBoard board, Colour colour, MoveList moves) {
+		generate(board, colour, moves, true, false);
+	}
+
+	/**
+	 * Adds the pseudo legal moves that neither capture nor promote, castling included
+	 * @param board
+	 * @param colour
+	 * @param moves
+	 */
+	static void generateQuiet(ChessBoard board, Colour colour, MoveList moves) {
+		generate(board, colour, moves, false, true);
+	}
+
+	private static void generate(ChessBoard board, Colour colour, MoveList moves, boolean captures, boolean quiet) {
+		for (int square = 0; square < 64; square++) {
+			Piece piece = board.pieceAt(square);
+			if (piece == null || !piece.getColour().equals(colour)) continue;
+			PieceType type = piece.getType();
+			if (type.equals(PieceType.PAWN)) {
+				pawnMoves(board, square, colour, moves, captures, quiet);
+			} else if (type.equals(PieceType.KNIGHT)) {
+				stepMoves(board, square, colour, Squares.KNIGHT_ATTACKS[square], moves, captures, quiet);
+			} else if (type.equals(PieceType.BISHOP)) {
+				slideMoves(board, square, colour, Squares.BISHOP_DIRECTIONS, moves, captures, quiet);
+			} else if (type.equals(PieceType.ROOK)) {
+				slideMoves(board, square, colour, Squares.ROOK_DIRECTIONS, moves, captures, quiet);
+			} else if (type.equals(PieceType.QUEEN)) {
+				slideMoves(board, square, colour, Squares.ROOK_DIRECTIONS, moves, captures, quiet);
+				slideMoves(board, square, colour, Squares.BISHOP_DIRECTIONS, moves, captures, quiet);
+			} else if (type.equals(PieceType.KING)) {
+				stepMoves(board, square, colour, Squares.KING_ATTACKS[square], moves, captures, quiet);
+				if (quiet) castlingMoves(board, square, piece, moves);
+			}
+		}
+	}
+
+	/**
+	 * Pushes to the last row are promotions and are generated with the captures
+	 */
+	private static void pawnMoves(ChessBoard board, int square, Colour colour, MoveList moves, boolean captures, boolean quiet) {
+		boolean white = colour.equals(Colour.WHITE);
+		int forward = white ? 8 : -8;
+		int startRank = white ? 1 : 6;
+		int one = square + forward;
+		if (one < 0 || one > 63) return;
+		if (board.pieceAt(one) == null) {
+			boolean promotion = Squares.rank(one) == 0 || Squares.rank(one) == 7;
+			if (promotion ? captures : quiet) addPawnMove(square, one, moves);
+			int two = one + forward;
+			if (quiet && Squares.rank(square) == startRank && board.pieceAt(two) == null) {
+				moves.add(Move.encode(square, two));
+			}
+		}
+		if (!captures) return;
+		long targets = Squares.PAWN_ATTACKS[colour.ordinal()][square];
+		int enPassant = board.getEnPassantSquare();
+		while (targets != 0) {
+			int target = Long.numberOfTrailingZeros(targets);
+			Piece p = board.pieceAt(target);
+			if (p != null && !p.getColour().equals(colour)) {
+				addPawnMove(square, target, moves);
+			} else if (target == enPassant && colour.equals(board.getTurn())) {
+				moves.add(Move.encode(square, target, Move.EN_PASSANT));
+			}
+			targets &= targets - 1;
+		}
+	}
+
+	private static void addPawnMove(int from, int to, MoveList moves) {
+		int rank = Squares.rank(to);
+		if (rank == 0 || rank == 7) {
+			for (PieceType type : PROMOTION_TYPES) {
+				moves.add(Move.promotion(from, to, type));
+			}
+		} else {
+			moves.add(Move.encode(from, to));
+		}
+	}
+
+	private static void stepMoves(ChessBoard board, int square, Colour colour, long targets, MoveList moves, boolean captures, boolean quiet) {
+		while (targets != 0) {
+			int target = Long.numberOfTrailingZeros(targets);
+			Piece p = board.pieceAt(target);
+			if (p == null ? quiet : captures && !p.getColour().equals(colour)) moves.add(Move.encode(square, target));
+			targets &= targets - 1;
+		}
+	}
+
+	private static void slideMoves(ChessBoard board, int square, Colour colour, int[][] directions, MoveList moves, boolean captures, boolean quiet) {
+		for (int[] direction : directions) {
+			int target = square;
+			while ((target = Squares.offset(target, direction[0], direction[1])) >= 0) {
+				Piece p = board.pieceAt(target);
+				if (p == null) {
+					if (quiet) moves.add(Move.encode(square, target));
+				} else {
+					if (captures && !p.getColour().equals(colour)) moves.add(Move.encode(square, target));
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds castling moves allowed by the board's castling rights when the rook is still in its corner,
+	 * the squares between them are empty and the king neither starts on nor passes over an attacked square
+	 */
+	private static void castlingMoves(ChessBoard board, int square, Piece king, MoveList moves) {
+		int home = king.isBlack() ? 60 : 4;
+		long state = board.getState();
+		if (square != home || GameState.getCastlingRights(state) == 0) return;
+		Colour opposite = king.oppositePlayer();
+		Colour colour = king.getColour();
+		if (board.isSquareAttacked(home, opposite)) return;
+		if (GameState.canCastle(state, colour, true) && isRook(board, home + 3, king)
+				&& board.pieceAt(home + 1) == null && board.pieceAt(home + 2) == null
+				&& !board.isSquareAttacked(home + 1, opposite)) {
+			moves.add(Move.encode(home, home + 2, Move.CASTLING));
+		}
+		if (GameState.canCastle(state, colour, false) && isRook(board, home - 4, king)
+				&& board.pieceAt(home - 1) == null && board.pieceAt(home - 2) == null
+				&& board.pieceAt(home - 3) == null && !board.isSquareAttacked(home - 1, opposite)) {
+			moves.add(Move.encode(home, home - 2, Move.CASTLING));
+		}
+	}
+
+	private static boolean isRook(ChessBoard board, int square, Piece king) {
+		Piece rook = board.pieceAt(square);
+		return rook != null && rook.getType().equals(PieceType.ROOK) && rook.getColour().equals(king.getColour());
+	}
+}
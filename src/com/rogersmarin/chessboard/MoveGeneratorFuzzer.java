@@ -0,0 +1,323 @@
+package com.rogersmarin.chessboard;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays random games and checks at every ply that the board's legal moves, check, checkmate and
+ * attacked squares agree with a second implementation. The legal moves are compared either with
+ * the pseudo-legal moves filtered by making each one and looking for check, which tests the legality
+ * shortcuts, or with the square by square generator in Piece, which tests the whole generator.
+ * The attacked squares are always compared with isSquareAttacked looking outwards from each square,
+ * and the MovePicker, hasLegalMove and givesCheck shortcuts with the legal moves made on the board.
+ *
+ * Games are played on several threads, each game from its own seed so any game can be replayed.
+ * When the implementations disagree the position is made smaller by taking pieces off while they
+ * still disagree, and the smallest position is reported as FEN with the seed and the moves that led
+ * to the original one.
+ * @author roger
+ *
+ */
+public class MoveGeneratorFuzzer {
+
+	/**
+	 * Implementation the board's legal moves are compared with
+	 */
+	public enum Reference {
+		/** Pseudo-legal moves kept when they do not leave the king in check */
+		MAKE_MOVE,
+		/** Piece.generateValidCoordinates, compared by from and to squares only */
+		LEGACY
+	}
+
+	private final Reference reference;
+	private final int threads;
+	private final int maxPlies;
+	private final AtomicLong games = new AtomicLong();
+	private final AtomicLong plies = new AtomicLong();
+	private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+	/**
+	 * @param reference
+	 * @param threads
+	 * @param maxPlies the length at which a game is abandoned
+	 */
+	public MoveGeneratorFuzzer(Reference reference, int threads, int maxPlies) {
+		this.reference = reference;
+		this.threads = threads;
+		this.maxPlies = maxPlies;
+	}
+
+	/**
+	 * Plays games until the given number have been played, the time is up or a difference is found
+	 * @param gameCount
+	 * @param millis
+	 * @param seed the seed of the first game, game n uses seed + n
+	 * @return the reports of the differences found, empty if there were none
+	 * @throws InterruptedException
+	 */
+	public List<String> run(final long gameCount, long millis, final long seed) throws InterruptedException {
+		final long deadline = System.nanoTime() + millis * 1000000L;
+		final AtomicLong next = new AtomicLong();
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					long game;
+					while (failures.isEmpty() && System.nanoTime() < deadline && (game = next.getAndIncrement()) < gameCount) {
+						play(seed + game);
+					}
+				}
+			}, "fuzzer-" + i);
+			worker.start();
+			workers.add(worker);
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return new ArrayList<String>(failures);
+	}
+
+	public long getGames() {
+		return games.get();
+	}
+
+	public long getPlies() {
+		return plies.get();
+	}
+
+	/**
+	 * Plays a game, an exception thrown by the board or by the checks is recorded as a failure with
+	 * the moves that led to it rather than ending the worker
+	 */
+	private void play(long seed) {
+		Random random = new Random(seed);
+		StringBuilder played = new StringBuilder();
+		try {
+			ChessBoard board = new ChessBoard();
+			for (int ply = 0; ply < maxPlies; ply++) {
+				String difference = compare(board);
+				if (difference != null) {
+					String fen = minimize(board.toFen());
+					failures.add("seed " + seed + " after " + played.toString().trim() + "\n"
+							+ "position " + board.toFen() + "\n" + "minimized " + fen + "\n" + compare(ChessBoard.fromFen(fen)));
+					return;
+				}
+				plies.incrementAndGet();
+				MoveList moves = board.getLegalMoves();
+				if (moves.isEmpty() || board.isThreefoldRepetition() || board.isFiftyMoveDraw()) break;
+				int move = moves.get(random.nextInt(moves.size()));
+				played.append(Move.toString(move)).append(' ');
+				board.makeMove(move);
+			}
+		} catch (Throwable t) {
+			StringWriter trace = new StringWriter();
+			t.printStackTrace(new PrintWriter(trace));
+			failures.add("seed " + seed + " after " + played.toString().trim() + "\n" + "threw " + trace.toString().trim());
+			return;
+		}
+		games.incrementAndGet();
+	}
+
+	/**
+	 * Returns a description of the first disagreement in the position or null if there is none
+	 * @param board
+	 * @return
+	 */
+	String compare(ChessBoard board) {
+		Colour turn = board.getTurn();
+		Colour other = opposite(turn);
+		// asked before the legal moves are generated and kept by the board
+		boolean hasLegalMove = board.hasLegalMove();
+		int[] referenceMoves = (reference == Reference.LEGACY) ? legacyMoves(board) : makeMoveMoves(board);
+		int[] boardMoves = movesOf(board.getLegalMoves(), reference == Reference.LEGACY ? 0xfff : 0x7fff);
+		if (!Arrays.equals(boardMoves, referenceMoves)) {
+			return "legal moves " + toString(boardMoves) + " but " + reference + " gives " + toString(referenceMoves);
+		}
+		if (hasLegalMove != (referenceMoves.length > 0)) {
+			return "hasLegalMove is " + hasLegalMove + " with " + referenceMoves.length + " moves";
+		}
+		MoveList picked = new MoveList();
+		MovePicker picker = new MovePicker(board);
+		for (int move = picker.next(); move != Move.NONE; move = picker.next()) {
+			picked.add(move);
+		}
+		int[] legal = movesOf(board.getLegalMoves(), 0x7fff);
+		if (!Arrays.equals(movesOf(picked, 0x7fff), legal) || picked.size() != legal.length) {
+			return "MovePicker gives " + toString(movesOf(picked, 0x7fff)) + " for legal moves " + toString(legal);
+		}
+		for (int move : legal) {
+			boolean gives = board.givesCheck(move);
+			board.makeMove(move);
+			boolean check = board.isCheck(other);
+			board.unmakeMove();
+			if (gives != check) return "givesCheck is " + gives + " for " + Move.toString(move);
+		}
+		Piece king = board.getKing(turn);
+		boolean check = king != null && (board.getAttackedSquares(turn) & 1L << king.getPosition().getSquare()) != 0;
+		if (board.isCheck(turn) != check) {
+			return "isCheck is " + board.isCheck(turn) + " but the attacked squares say " + check;
+		}
+		if (board.isCheckmate(turn) != (check && referenceMoves.length == 0)) {
+			return "isCheckmate is " + board.isCheckmate(turn) + " with " + referenceMoves.length + " moves";
+		}
+		for (Colour colour : new Colour[] {turn, other}) {
+			long attacked = 0;
+			for (int square = 0; square < 64; square++) {
+				if (board.isSquareAttacked(square, opposite(colour))) attacked |= 1L << square;
+			}
+			if (board.getAttackedSquares(colour) != attacked) {
+				return "squares attacked by " + opposite(colour) + " are " + Long.toHexString(board.getAttackedSquares(colour))
+						+ " but isSquareAttacked gives " + Long.toHexString(attacked);
+			}
+		}
+		return null;
+	}
+
+	private static int[] makeMoveMoves(ChessBoard board) {
+		Colour turn = board.getTurn();
+		MoveList pseudo = new MoveList();
+		board.generatePseudoLegalMoves(turn, pseudo);
+		MoveList legal = new MoveList();
+		for (int i = 0; i < pseudo.size(); i++) {
+			board.makeMove(pseudo.get(i));
+			if (!board.isCheck(turn)) legal.add(pseudo.get(i));
+			board.unmakeMove();
+		}
+		return movesOf(legal, 0x7fff);
+	}
+
+	/**
+	 * Returns the moves found by each piece on a copy of the board, as the legacy generator moves pieces about
+	 */
+	private static int[] legacyMoves(ChessBoard board) {
+		ChessBoard copy = board.copy();
+		MoveList moves = new MoveList();
+		for (int square = 0; square < 64; square++) {
+			Piece piece = copy.pieceAt(square);
+			if (piece == null || !piece.getColour().equals(board.getTurn())) continue;
+			for (Coordinate to : piece.generateValidCoordinates(copy, false)) {
+				moves.add(Move.encode(square, to.getSquare()));
+			}
+		}
+		return movesOf(moves, 0xfff);
+	}
+
+	/**
+	 * Returns the moves with only the given bits kept, sorted and without duplicates
+	 */
+	private static int[] movesOf(MoveList list, int mask) {
+		int[] moves = new int[list.size()];
+		for (int i = 0; i < moves.length; i++) {
+			moves[i] = list.get(i) & mask;
+		}
+		Arrays.sort(moves);
+		int size = 0;
+		for (int i = 0; i < moves.length; i++) {
+			if (size == 0 || moves[size - 1] != moves[i]) moves[size++] = moves[i];
+		}
+		return Arrays.copyOf(moves, size);
+	}
+
+	private static String toString(int[] moves) {
+		StringBuilder buff = new StringBuilder("[");
+		for (int move : moves) {
+			if (buff.length() > 1) buff.append(' ');
+			buff.append(Move.toString(move));
+		}
+		return buff.append(']').toString();
+	}
+
+	/**
+	 * Takes pieces other than the kings off the position one at a time, keeping each removal that
+	 * leaves a legal position where the implementations still disagree
+	 * @param fen
+	 * @return the smallest position found
+	 */
+	String minimize(String fen) {
+		boolean smaller = true;
+		while (smaller) {
+			smaller = false;
+			ChessBoard board = ChessBoard.fromFen(fen);
+			for (int square = 0; square < 64 && !smaller; square++) {
+				Piece piece = board.pieceAt(square);
+				if (piece == null || piece.getType().equals(PieceType.KING)) continue;
+				ChessBoard candidate = board.copy();
+				candidate.place(square, null);
+				// rebuilt from text so the castling and en passant state is checked against the pieces left
+				candidate = ChessBoard.fromFen(candidate.toFen());
+				candidate.setState(GameState.withCastlingRights(candidate.getState(), possibleRights(candidate)));
+				if (candidate.isCheck(opposite(candidate.getTurn()))) continue;
+				if (compare(candidate) != null) {
+					fen = candidate.toFen();
+					smaller = true;
+				}
+			}
+		}
+		return fen;
+	}
+
+	/**
+	 * Returns the castling rights held whose king and rook are still on their starting squares
+	 */
+	private static int possibleRights(ChessBoard board) {
+		int rights = board.getCastlingRights();
+		int[] rooks = {7, 0, 63, 56};
+		for (int i = 0; i < 4; i++) {
+			int king = (i < 2) ? 4 : 60;
+			Colour colour = (i < 2) ? Colour.WHITE : Colour.BLACK;
+			if (!isPiece(board.pieceAt(king), PieceType.KING, colour) || !isPiece(board.pieceAt(rooks[i]), PieceType.ROOK, colour)) {
+				rights &= ~(1 << i);
+			}
+		}
+		return rights;
+	}
+
+	private static boolean isPiece(Piece piece, PieceType type, Colour colour) {
+		return piece != null && piece.getType().equals(type) && piece.getColour().equals(colour);
+	}
+
+	private static Colour opposite(Colour colour) {
+		return colour.equals(Colour.WHITE) ? Colour.BLACK : Colour.WHITE;
+	}
+
+	/**
+	 * Runs the fuzzer from the command line, exits with 1 if a difference is found
+	 * @param args optional -games n, -seconds n, -threads n, -plies n, -seed n and -legacy to compare with Piece
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		long games = Long.MAX_VALUE;
+		long seconds = 60;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int maxPlies = 300;
+		long seed = System.currentTimeMillis();
+		Reference reference = Reference.MAKE_MOVE;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-legacy")) reference = Reference.LEGACY;
+			else if (i + 1 < args.length) {
+				if (args[i].equals("-games")) games = Long.parseLong(args[++i]);
+				else if (args[i].equals("-seconds")) seconds = Long.parseLong(args[++i]);
+				else if (args[i].equals("-threads")) threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-plies")) maxPlies = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-seed")) seed = Long.parseLong(args[++i]);
+			}
+		}
+		MoveGeneratorFuzzer fuzzer = new MoveGeneratorFuzzer(reference, threads, maxPlies);
+		long start = System.nanoTime();
+		List<String> failures = fuzzer.run(games, seconds * 1000, seed);
+		long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+		System.out.println(fuzzer.getGames() + " games, " + fuzzer.getPlies() + " plies in " + millis + "ms, "
+				+ fuzzer.getPlies() * 1000 / millis + " plies/s against " + reference + ", first seed " + seed);
+		for (String failure : failures) {
+			System.out.println(failure);
+		}
+		if (!failures.isEmpty()) System.exit(1);
+	}
+}
@@ -0,0 +1,75 @@
+package com.rogersmarin.chessboard;
+
+import java.util.Arrays;
+
+/**
+ * Class that represents a list of encoded moves backed by a primitive array
+ * @author roger
+ *
+ */
+public class MoveList {
+
+	/**
+	 * Room for the moves of any position reached in a game, positions set up by hand can have more
+	 * pseudo-legal moves and the array then grows
+	 */
+	private static final int CAPACITY = 256;
+
+	private int[] moves;
+	private int size;
+
+	public MoveList() {
+		moves = new int[CAPACITY];
+	}
+
+	/**
+	 * Creates a copy of a list holding only its moves
+	 * @param list
+	 */
+	public MoveList(MoveList list) {
+		moves = Arrays.copyOf(list.moves, list.size);
+		size = list.size;
+	}
+
+	public void add(int move) {
+		if (size == moves.length) moves = Arrays.copyOf(moves, Math.max(CAPACITY, size * 2));
+		moves[size++] = move;
+	}
+
+	public int get(int index) {
+		return moves[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Returns true if the list contains the given move
+	 * @param move
+	 * @return
+	 */
+	public boolean contains(int move) {
+		for (int i = 0; i < size; i++) {
+			if (moves[i] == move) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the move at the given index by replacing it with the last move,
+	 * the order of the remaining moves is not kept
+	 * @param index
+	 */
+	public void removeAt(int index) {
+		moves[index] = moves[--size];
+	}
+}
@@ -0,0 +1,136 @@
+package com.rogersmarin.chessboard;
+
+/**
+ * Hands out the legal moves of the side to move one at a time, best candidates first. Captures and
+ * promotions come first, most valuable victim then least valuable attacker with captures that lose
+ * material in the exchange on the square last, then quiet moves that give check, then the remaining
+ * quiet moves. Each stage is only generated once the one before it is used up, so a caller that
+ * stops early, e.g on a search cutoff, never pays for the rest. Checks are found without making the
+ * moves and legality is only tested for the move about to be handed out.
+ *
+ * Moves may be made on the board between calls to {@link #next()} as long as they are taken back
+ * before the next call.
+ * @author roger
+ *
+ */
+public class MovePicker {
+
+	public static final int CAPTURES = 0;
+	public static final int CHECKS = 1;
+	public static final int QUIET = 2;
+	public static final int DONE = 3;
+
+	/** Taken off the score of losing captures, more than any capture can score */
+	private static final int LOSING = 1 << 20;
+
+	private final ChessBoard board;
+	private final Colour colour;
+	/** The captures, then once they are used up the quiet moves */
+	private final MoveList moves = new MoveList();
+	/** The score of each capture, then 1 for each quiet move that gives check */
+	private int[] scores = new int[256];
+	private int king;
+	private boolean inCheck;
+	private int stage = -1;
+	private int index;
+
+	/**
+	 * @param board the board whose side to move the moves are picked for
+	 */
+	public MovePicker(ChessBoard board) {
+		this.board = board;
+		this.colour = board.getTurn();
+	}
+
+	/**
+	 * Returns the stage of the last move handed out
+	 * @return
+	 */
+	public int getStage() {
+		return stage;
+	}
+
+	/**
+	 * Returns the next legal move or Move.NONE once every move has been handed out
+	 * @return
+	 */
+	public int next() {
+		if (stage < CAPTURES) {
+			stage = CAPTURES;
+			king = board.kingSquare(colour);
+			inCheck = board.isCheck(colour);
+			MoveGenerator.generateCaptures(board, colour, moves);
+			fitScores();
+			for (int i = 0; i < moves.size(); i++) {
+				scores[i] = score(moves.get(i));
+			}
+		}
+		if (stage == CAPTURES) {
+			while (!moves.isEmpty()) {
+				int move = takeBest();
+				if (board.isLegal(move, king, inCheck)) return move;
+			}
+			stage = CHECKS;
+			MoveGenerator.generateQuiet(board, colour, moves);
+			fitScores();
+			index = 0;
+		}
+		if (stage == CHECKS) {
+			// checks are marked as they are found so the last stage can skip them
+			while (index < moves.size()) {
+				int move = moves.get(index);
+				boolean check = board.givesCheck(move);
+				scores[index++] = check ? 1 : 0;
+				if (check && board.isLegal(move, king, inCheck)) return move;
+			}
+			stage = QUIET;
+			index = 0;
+		}
+		if (stage == QUIET) {
+			while (index < moves.size()) {
+				int move = moves.get(index);
+				if (scores[index++] == 0 && board.isLegal(move, king, inCheck)) return move;
+			}
+			stage = DONE;
+		}
+		return Move.NONE;
+	}
+
+	private void fitScores() {
+		if (scores.length < moves.size()) scores = new int[moves.size()];
+	}
+
+	/**
+	 * Removes and returns the highest scoring capture, selecting one at a time is cheaper than
+	 * sorting when a cutoff comes after the first few
+	 */
+	private int takeBest() {
+		int best = 0;
+		for (int i = 1; i < moves.size(); i++) {
+			if (scores[i] > scores[best]) best = i;
+		}
+		int move = moves.get(best);
+		int last = moves.size() - 1;
+		scores[best] = scores[last];
+		moves.removeAt(best);
+		return move;
+	}
+
+	/**
+	 * Scores a capture by the value of the victim, and of the promotion if any, less a fraction
+	 * of the attacker's value so cheaper attackers are tried first. A capture by a more valuable
+	 * piece that loses material in the exchange that follows is tried after the other captures
+	 */
+	private int score(int move) {
+		Piece victim = board.pieceAt(Move.getTo(move));
+		Piece attacker = board.pieceAt(Move.getFrom(move));
+		int victimValue = (victim != null) ? victim.getType().getValue() : 0;
+		if (Move.isEnPassant(move)) victimValue = PieceType.PAWN.getValue();
+		int gain = victimValue;
+		PieceType promotion = Move.getPromotion(move);
+		if (promotion != null) gain += promotion.getValue() - PieceType.PAWN.getValue();
+		int score = gain * 64 - attacker.getType().getValue() / 100;
+		if (attacker.getType().getValue() > victimValue && board.staticExchange(move) < 0) score -= LOSING;
+		return score;
+	}
+}
@@ -0,0 +1,119 @@
+package com.rogersmarin.chessboard;
+
+/**
+ * Class that represents the outcome of applying a move to the board.
+ * A single instance can be reused across moves so that validating a
+ * sequence of moves does not allocate anything per move.
+ * @author roger
+ *
+ */
+public class MoveResult {
+
+	/** The game continues and the side to move is not in check */
+	public static final int ACTIVE = 0;
+	/** The side to move is in check */
+	public static final int CHECK = 1;
+	/** The side to move is checkmated */
+	public static final int CHECKMATE = 2;
+	/** The side to move is not in check but has no legal moves */
+	public static final int STALEMATE = 3;
+	/** The position has occurred three times or fifty moves passed without a capture or pawn move */
+	public static final int DRAW = 4;
+
+	private boolean valid;
+	private Piece captured;
+	private boolean castling;
+	private PieceType promotion;
+	private int status;
+
+	public MoveResult() {
+		reset();
+	}
+
+	/**
+	 * Clears the result so the instance can be reused for the next move
+	 */
+	public void reset() {
+		valid = false;
+		captured = null;
+		castling = false;
+		promotion = null;
+		status = ACTIVE;
+	}
+
+	/**
+	 * Returns true if the move was valid and has been applied to the board
+	 * @return
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 * Returns the piece captured by the move or null if nothing was captured
+	 * @return
+	 */
+	public Piece getCaptured() {
+		return captured;
+	}
+
+	/**
+	 * Returns true if the move was a castling move
+	 * @return
+	 */
+	public boolean isCastling() {
+		return castling;
+	}
+
+	/**
+	 * Returns the type the pawn was promoted to or null if the move was not a promotion
+	 * @return
+	 */
+	public PieceType getPromotion() {
+		return promotion;
+	}
+
+	/**
+	 * Returns the game status after the move, one of ACTIVE, CHECK, CHECKMATE, STALEMATE or DRAW
+	 * @return
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns true if the move puts the opposite player under check
+	 * @return
+	 */
+	public boolean isCheck() {
+		return status == CHECK || status == CHECKMATE;
+	}
+
+	/**
+	 * Returns true if the move checkmates the opposite player
+	 * @return
+	 */
+	public boolean isCheckmate() {
+		return status == CHECKMATE;
+	}
+
+	void setValid(boolean valid) {
+		this.valid = valid;
+	}
+
+	void setCaptured(Piece captured) {
+		this.captured = captured;
+	}
+
+	void setCastling(boolean castling) {
+		this.castling = castling;
+	}
+
+	void setPromotion(PieceType promotion) {
+		this.promotion = promotion;
+	}
+
+	void setStatus(int status) {
+		this.status = status;
+	}
+}
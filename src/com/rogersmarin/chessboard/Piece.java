@@ -1,10 +1,6 @@
 package com.rogersmarin.chessboard;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -17,16 +13,22 @@ public class Piece {
 	private PieceType pieceType;
 	private Colour colour;
 	private ChessBoard chessBoard;
-	private Coordinate move;
 	private boolean moved = false;
-	private Set<Coordinate> validMoves;
-	private Map<String, Coordinate> specialMoves;
 	
 	Piece(Coordinate position, PieceType type, Colour colour) {
 		this.position = position;
 		this.colour = colour;
 		this.pieceType = type;
 	}
+	
+	/**
+	 * Creates a copy of a piece, used when copying a board
+	 * @param piece
+	 */
+	Piece(Piece piece) {
+		this(piece.position, piece.pieceType, piece.colour);
+		this.moved = piece.moved;
+	}
 
 	/**
 	 * Checks the specified board and move to determine the possible piece moves
@@ -35,17 +37,42 @@ public class Piece {
 	 * @return
 	 * @throws Exception
 	 */
-	public List<Boolean> checkBoard(Coordinate move, ChessBoard board) throws Exception {
-		this.move = move;
+	public MoveResult checkBoard(Coordinate move, ChessBoard board) throws Exception {
+		return checkBoard(move, board, new MoveResult());
+	}
+	
+	/**
+	 * Checks the specified board and move, applying the move if it is valid.
+	 * The outcome is written to the given result which is returned for convenience
+	 * @param move
+	 * @param board
+	 * @param result the result to reuse, it is reset before being filled in
+	 * @return
+	 * @throws Exception
+	 */
+	public MoveResult checkBoard(Coordinate move, ChessBoard board, MoveResult result) throws Exception {
 		this.chessBoard = board;
-		List<Boolean> moveChecks = new ArrayList<Boolean>(); 
-		setPieceMoves(position);
-		moveChecks.add(isValidMove());
-		boolean check = isCheck(oppositePlayer());
-		board.setCheck(check);
-		moveChecks.add(check);
-		moveChecks.add(isCheckmate(check));
-		return moveChecks;
+		result.reset();
+		int legalMove = board.findLegalMove(position, move);
+		if (legalMove != Move.NONE) {
+			int capturedSquare = Move.isEnPassant(legalMove) ? (move.getSquare() & 7) | (position.getSquare() & ~7) : move.getSquare();
+			result.setCaptured(board.pieceAt(capturedSquare));
+			board.makeMove(legalMove);
+			result.setValid(true);
+			result.setCastling(Move.isCastling(legalMove));
+			result.setPromotion(Move.getPromotion(legalMove));
+			boolean check = isCheck(oppositePlayer());
+			board.setCheck(check);
+			if (board.getLegalMoves(oppositePlayer()).isEmpty()) {
+				result.setStatus(check ? MoveResult.CHECKMATE : MoveResult.STALEMATE);
+			} else if (board.isThreefoldRepetition() || board.isFiftyMoveDraw()) {
+				result.setStatus(MoveResult.DRAW);
+			} else if (check) {
+				result.setStatus(MoveResult.CHECK);
+			}
+			board.movePlayed(legalMove, result.getCaptured(), result.getStatus());
+		}
+		return result;
 	}
 	
 	/**
@@ -110,12 +137,31 @@ public class Piece {
 	}
 	
     /**
-     * Returns all the valid moves for the piece in the board
+     * Returns all the valid moves for the piece in the board, the moves are taken from the
+     * legal moves the board keeps for the piece colour
      * @param board
      * @param attack if the piece belongs to an attacked coordinate set
      * @return
      */
 	public Set<Coordinate> getValidCoordinates(ChessBoard board, boolean attack) {
+		if (attack) return generateValidCoordinates(board, true);
+		Set<Coordinate> validMoves = new HashSet<Coordinate>();
+		MoveList moves = board.getLegalMoves(colour);
+		int square = position.getSquare();
+		for (int i = 0; i < moves.size(); i++) {
+			int move = moves.get(i);
+			if (Move.getFrom(move) == square) validMoves.add(Coordinate.valueOf(Move.getTo(move)));
+		}
+		return validMoves;
+	}
+	
+	/**
+	 * Generates the valid moves for the piece square by square without using the moves kept by the board
+	 * @param board
+	 * @param attack if the piece belongs to an attacked coordinate set
+	 * @return
+	 */
+	Set<Coordinate> generateValidCoordinates(ChessBoard board, boolean attack) {
 		this.chessBoard = board;
 		BlockAttack bc = new BlockAttack(attack);
 		Set<Coordinate> validMoves = new HashSet<Coordinate>();
@@ -161,46 +207,20 @@ public class Piece {
 	public void setPosition(Coordinate coordinate) {
 		position = coordinate;
 	}
-
-	private boolean isCheck(Colour oppositePlayer) {
-		try {
-			for (Coordinate coord : chessBoard.getAttackedCoordinates(oppositePlayer)) {
-				Piece attackedPiece = chessBoard.getPieceAt(coord);
-				if (attackedPiece != null) {
-					if (attackedPiece.pieceType.equals(PieceType.KING) 
-							&& attackedPiece.getColour().equals(oppositePlayer)){
-						return true;
-					}
-				}
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return false;
+	
+	void setMoved(boolean moved) {
+		this.moved = moved;
 	}
 	
+	void setType(PieceType type) {
+		pieceType = type;
+	}
 
-	private boolean isCheckmate(boolean check) throws Exception {
-		if (check) {
-			Piece oppositeKing = chessBoard.getKing(oppositePlayer());
-			BlockAttack bc = new BlockAttack();
-			if (oppositeKing.getValidCoordinates(chessBoard, false).isEmpty()) {
-				for (Piece p : chessBoard.getPieces(oppositePlayer())) {
-					for (Coordinate m : p.getValidCoordinates(chessBoard, false)) {
-						chessBoard.movePiece(p, m);
-						if (bc.blocked(chessBoard, position, oppositeKing.getPosition())) {
-							chessBoard.movePieceBack(p, m);
-							return false;
-						}
-						chessBoard.movePieceBack(p, m);
-					}
-				}
-				return true;
-			}
-		}
-		return false;
+	private boolean isCheck(Colour oppositePlayer) {
+		return chessBoard.isCheck(oppositePlayer);
 	}
 	
+
 	private boolean isHorizontalMove(Coordinate move) {
 		return position.x == move.x;
 	}
@@ -209,21 +229,6 @@ public class Piece {
 		return position.y == move.y;
 	}
 	
-	private boolean isValidMove () {
-		try {
-			if (position != move && isValidMove(move)) {
-				chessBoard.movePiece(this, move);
-				setPosition(move);
-				chessBoard.setAttackedCoordinates();
-				moved = true;
-				return true;
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return false;
-	}
-	
 	private boolean onBoard(Coordinate s) {
 		if (s.x >= 1 && s.y >=1 && s.x <= 8 && s.y <= 8) {
 			return true;
@@ -235,64 +240,23 @@ public class Piece {
 		return colour.equals(Colour.BLACK); 
 	}
 	
-	private void reduceToCheckMoves() {
-		validMoves = setCheckMoves(validMoves);
-	}
-	
 	private Set<Coordinate> setCheckMoves(Set<Coordinate> validMoves) {
 		Set<Coordinate> checkMoves = new HashSet<Coordinate>();
 		for (Coordinate m : validMoves) {
 			if (!inCheck(m))	checkMoves.add(m);
 		}
 		
-		try {
-			int row = colour.equals(Colour.WHITE) ? 1 : 8;
-			if (pieceType.equals(PieceType.KING)) {
-				if (!inCheck(specialMoves.get("king1-4")) && !inCheck(specialMoves.get("king1-3"))) {
-					checkMoves.add(new Coordinate(3,row));
-				}
-			}
-		} catch (NullPointerException e){}
+		if (pieceType.equals(PieceType.KING)) addCastlingMoves(checkMoves);
 		return checkMoves;
 	}
 	
 	
 	
-	private void setPieceMoves(Coordinate position) throws Exception {
-		BlockAttack bc = new BlockAttack();
-		if (pieceType.equals(PieceType.ROOK)) {
-			validMoves = validRookMoves(bc);
-		} else if (pieceType.equals(PieceType.KNIGHT)) {
-			validMoves = validKnightMoves(bc);
-		} else if (pieceType.equals(PieceType.BISHOP)) {
-			validMoves = validBishopMoves(bc);
-		} else if (pieceType.equals(PieceType.QUEEN)) {
-			validMoves = validQueenMoves(bc);
-		} else if (pieceType.equals(PieceType.KING)) {
-			validMoves = validKingMoves(bc);
-		} else if (pieceType.equals(PieceType.PAWN)) {
-			validMoves = validPawnMoves(bc);
-		} else {
-			throw new Exception("invalid piece type!");
-		}
-		reduceToCheckMoves();
-	}
-	
-	
-	
 	protected Colour oppositePlayer() {
 		if (colour.equals(Colour.WHITE)) return Colour.BLACK;
 		return Colour.WHITE;
 	}
 	
-	
-	private boolean isValidMove(Coordinate move) throws Exception {
-		if (validMoves.contains(move)) {
-			return true;
-		}
-		return false;
-	}
-	
 	private Set<Coordinate> validRookMoves(BlockAttack bc) {
 		Set<Coordinate> validMoves = new HashSet<Coordinate>();
 		try {
@@ -377,7 +341,7 @@ public class Piece {
 				for (int j=-1; j<= 1; j++) {
 					if (i==0 && j==0) continue;
 					Coordinate coordinate = new Coordinate(position.y+i, position.x+j);
-					if (onBoard(coordinate) && !bc.blocked(position, coordinate) && !chessBoard.getAttackedCoordinates(colour).contains(coordinate)) {
+					if (onBoard(coordinate) && !bc.blocked(position, coordinate) && (chessBoard.getAttackedSquares(colour) & (1L << coordinate.getSquare())) == 0) {
 						validMoves.add(coordinate);
 					}
 				}
@@ -388,40 +352,33 @@ public class Piece {
 		return validMoves;
 	}
 	
-	private void setSpecialMoves(BlockAttack bc) {
-		specialMoves = new HashMap<String, Coordinate>();
+	/**
+	 * Adds the castling moves allowed by the castling rights held in the board's game state
+	 * @param checkMoves
+	 */
+	private void addCastlingMoves(Set<Coordinate> checkMoves) {
 		int row = (!isBlack()) ? 1 : 8;
-		int[] cols = {1,5,8};
-		Piece king = chessBoard.getPieceAt(new Coordinate(cols[1], row));
-		Piece rook1 = chessBoard.getPieceAt(new Coordinate(cols[0], row));
-		Piece rook8 = chessBoard.getPieceAt(new Coordinate(cols[2], row));
-		
-		try {
-			if (king != null) {
-				if (!king.moved() && !isCheck(colour)) {
-					if (rook1 != null) {
-						if (!rook1.moved()) {
-							if (!bc.blocked(king.getPosition(), rook1.getPosition())) {
-								specialMoves.put("king1-3", new Coordinate(3,row));
-								specialMoves.put("king1-4", new Coordinate(4,row));
-								specialMoves.put("rook1", new Coordinate(4, row));
-							}
-						}
-					}
-					if (rook8 != null) {
-						if (!rook8.moved() && this == rook8) {
-							if (!bc.blocked(king.getPosition(), rook8.getPosition())) {
-								specialMoves.put("king8-7", new Coordinate(7, row));
-								specialMoves.put("king8-6", new Coordinate(6,row));
-								specialMoves.put("rook8", new Coordinate(6,row));
-							}
-						}
-					}
-				}
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		long state = chessBoard.getState();
+		if (!position.equals(new Coordinate(5, row)) || isCheck(colour)) return;
+		if (GameState.canCastle(state, colour, false) && isRook(chessBoard.getPieceAt(new Coordinate(1, row)))
+				&& emptyBetween(row, 1, 5) && !inCheck(new Coordinate(4, row)) && !inCheck(new Coordinate(3, row))) {
+			checkMoves.add(new Coordinate(3, row));
+		}
+		if (GameState.canCastle(state, colour, true) && isRook(chessBoard.getPieceAt(new Coordinate(8, row)))
+				&& emptyBetween(row, 5, 8) && !inCheck(new Coordinate(6, row)) && !inCheck(new Coordinate(7, row))) {
+			checkMoves.add(new Coordinate(7, row));
+		}
+	}
+	
+	private boolean isRook(Piece rook) {
+		return rook != null && rook.pieceType.equals(PieceType.ROOK) && rook.colour.equals(colour);
+	}
+	
+	private boolean emptyBetween(int row, int fromCol, int toCol) {
+		for (int col = fromCol + 1; col < toCol; col++) {
+			if (!chessBoard.isPositionEmpty(new Coordinate(col, row))) return false;
 		}
+		return true;
 	}
 	
 	private Set<Coordinate> validPawnMoves(BlockAttack bc) {
@@ -444,7 +401,7 @@ public class Piece {
 			}
 			if (validPawnCapture(capture1)) validMoves.add(capture1);
 			if (validPawnCapture(capture2)) validMoves.add(capture2);
-			if (!moved && !chessBoard.isPositionEmpty(moveUp2) && !bc.blocked(position, moveUp2)) {
+			if (!moved && chessBoard.isPositionEmpty(moveUp) && chessBoard.isPositionEmpty(moveUp2) && !bc.blocked(position, moveUp2)) {
 				validMoves.add(moveUp2);
 			}
 		} catch (Exception e) {
@@ -454,6 +411,7 @@ public class Piece {
 	}
 	
 	private boolean validPawnCapture(Coordinate coordinate) {
+		if (onBoard(coordinate) && coordinate.getSquare() == chessBoard.getEnPassantSquare()) return true;
 		if (!chessBoard.isPositionEmpty(coordinate)) {
 			if (chessBoard.getPieceAt(coordinate).colour.equals(oppositePlayer())) {
 				return true;
@@ -467,6 +425,14 @@ public class Piece {
 	}
 	
 	private boolean inCheck(Piece p, Coordinate coordinate) {
+		// a pawn taken en passant is not on the destination square so it is lifted off for the test
+		int passedSquare = -1;
+		Piece passed = null;
+		if (p.pieceType.equals(PieceType.PAWN) && coordinate.getSquare() == chessBoard.getEnPassantSquare()) {
+			passedSquare = (coordinate.getSquare() & 7) | (p.position.getSquare() & ~7);
+			passed = chessBoard.pieceAt(passedSquare);
+			chessBoard.place(passedSquare, null);
+		}
 		try {
 			chessBoard.movePiece(p, coordinate);
 			if (isCheck(colour)) {
@@ -477,6 +443,8 @@ public class Piece {
 		} catch (NullPointerException e) {
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			if (passed != null) chessBoard.place(passedSquare, passed);
 		}
 		return false;
 	}
@@ -502,13 +470,6 @@ public class Piece {
 			return blockedMove(chessBoard, position, move);
 		}
 		
-		boolean blocked(ChessBoard b, Coordinate position, Coordinate move) {
-			if (attack) {
-				return blockedAttack(b, position, move);
-			}
-			return blockedMove(b, position, move);
-		}
-		
 		private boolean blockedMove(ChessBoard b, Coordinate position, Coordinate move) {
 			Integer lowRow, lowCol, highRow, highCol;
 			
@@ -7,19 +7,23 @@ package com.rogersmarin.chessboard;
  */
 public enum PieceType {
 	
-	KING   ("\u265B", "\u2655"),
-	QUEEN  ("\u265B", "\u2655"),
-	BISHOP ("\u265D", "\u2657"),
-	ROOK   ("\u265C", "\u2656"),
-	PAWN   ("\u265F", "\u2659"),
-	KNIGHT ("\u265E", "\u2658");
+	KING   ("\u265B", "\u2655", 'K', 10000),
+	QUEEN  ("\u265B", "\u2655", 'Q', 900),
+	BISHOP ("\u265D", "\u2657", 'B', 300),
+	ROOK   ("\u265C", "\u2656", 'R', 500),
+	PAWN   ("\u265F", "\u2659", 'P', 100),
+	KNIGHT ("\u265E", "\u2658", 'N', 300);
 	
 	private String blackASCII;
 	private String whiteASCII;
+	private char letter;
+	private int value;
 	
-	private PieceType(String blackASCII,String whiteASCII){
+	private PieceType(String blackASCII,String whiteASCII, char letter, int value){
 		this.blackASCII = blackASCII;
 		this.whiteASCII = whiteASCII;
+		this.letter = letter;
+		this.value = value;
 	}
 	
 	public String getWhiteASCII(){
@@ -29,5 +33,22 @@ public enum PieceType {
 	public String getBlackASCII(){
 		return this.blackASCII;
 	}
+	
+	/**
+	 * Returns the upper case letter used for the piece in move notation e.g N for a knight
+	 * @return
+	 */
+	public char getLetter(){
+		return this.letter;
+	}
+	
+	/**
+	 * Returns the material value of the piece in hundredths of a pawn, the king is given
+	 * a value larger than all the other pieces together
+	 * @return
+	 */
+	public int getValue(){
+		return this.value;
+	}
 
 }
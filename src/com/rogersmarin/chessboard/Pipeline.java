@@ -0,0 +1,302 @@
+package com.rogersmarin.chessboard;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Chain of processing stages connected by bounded queues, for bulk jobs such as parsing, replaying,
+ * analysing and writing games. Each stage has its own threads and takes items from the queue in
+ * front of it, so a slow stage fills its queue and the stages before it wait, which keeps memory
+ * use fixed whatever the size of the input.
+ *
+ * A pipeline is built from a source and stages added one after another, e.g
+ * Pipeline.from("read", lines, 256).then("parse", 1, parser).then("replay", 4, replayer).run(System.out, 5000).
+ * While it runs and once it is done each stage reports the items it has taken, its rate, how busy
+ * its threads were and the depth of its queue, the busiest stage is the one to give more threads.
+ * An item that fails is counted against its stage and the first exception of each stage is kept
+ * for the summary and for {@link #getFirstFailure(String)}, nothing is written to the error stream.
+ * @author roger
+ *
+ */
+public class Pipeline<T> {
+
+	/**
+	 * Interface for the work done by a stage on each item
+	 */
+	public interface Stage<I, O> {
+		/**
+		 * Processes an item, called from several threads at once if the stage has more than one
+		 * @param item
+		 * @return the item for the next stage or null to pass nothing on
+		 * @throws Exception the item is counted as failed and the stage carries on
+		 */
+		O process(I item) throws Exception;
+	}
+
+	private static final Object END = new Object();
+
+	private final Iterator<?> source;
+	private final int queueCapacity;
+	private final List<StageRunner> stages;
+	private final StageRunner last;
+
+	private Pipeline(Iterator<?> source, int queueCapacity, List<StageRunner> stages, StageRunner last) {
+		this.source = source;
+		this.queueCapacity = queueCapacity;
+		this.stages = stages;
+		this.last = last;
+	}
+
+	/**
+	 * Starts a pipeline whose items come from the given source, read by a single thread
+	 * @param name the name of the source in reports
+	 * @param source
+	 * @param queueCapacity the size of the queue in front of each stage
+	 * @return
+	 */
+	public static <T> Pipeline<T> from(String name, Iterator<T> source, int queueCapacity) {
+		List<StageRunner> stages = new ArrayList<StageRunner>();
+		StageRunner first = new StageRunner(name, 1, null, 0);
+		stages.add(first);
+		return new Pipeline<T>(source, queueCapacity, stages, first);
+	}
+
+	/**
+	 * Adds a stage taking the items of the stage before
+	 * @param name the name of the stage in reports
+	 * @param threads
+	 * @param stage
+	 * @return the pipeline with the stage added, to add further stages to
+	 */
+	public <R> Pipeline<R> then(String name, int threads, Stage<? super T, R> stage) {
+		StageRunner runner = new StageRunner(name, threads, stage, queueCapacity);
+		last.next = runner;
+		stages.add(runner);
+		return new Pipeline<R>(source, queueCapacity, stages, runner);
+	}
+
+	/**
+	 * Runs every item through the stages and waits for the last one to finish
+	 * @param report where progress and the final statistics are printed, or null
+	 * @param reportMillis the time between progress lines
+	 * @throws InterruptedException
+	 */
+	public void run(PrintStream report, long reportMillis) throws InterruptedException {
+		long start = System.nanoTime();
+		for (StageRunner stage : stages) {
+			stage.start();
+		}
+		final StageRunner first = stages.get(0);
+		first.threadsRunning.set(1);
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						// the source's time is what it spends producing items, not waiting for room
+						long begun = System.nanoTime();
+						if (!source.hasNext()) break;
+						Object item = source.next();
+						first.busyNanos.addAndGet(System.nanoTime() - begun);
+						first.taken.incrementAndGet();
+						first.pass(item);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (RuntimeException e) {
+					first.fail(e);
+				} finally {
+					first.finished();
+				}
+			}
+		}, first.name);
+		reader.start();
+		StageRunner tail = stages.get(stages.size() - 1);
+		while (!tail.done.await(reportMillis, TimeUnit.MILLISECONDS)) {
+			if (report != null) report.println(progress(start));
+		}
+		reader.join();
+		if (report != null) report.print(summary(start));
+	}
+
+	/**
+	 * Returns the number of items that failed in a stage
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException if there is no stage with that name
+	 */
+	public long getFailed(String name) {
+		return stage(name).failed.get();
+	}
+
+	/**
+	 * Returns the first exception thrown in a stage
+	 * @param name
+	 * @return the exception or null if no item failed
+	 * @throws IllegalArgumentException if there is no stage with that name
+	 */
+	public Exception getFirstFailure(String name) {
+		return stage(name).firstFailure.get();
+	}
+
+	private StageRunner stage(String name) {
+		for (StageRunner stage : stages) {
+			if (stage.name.equals(name)) return stage;
+		}
+		throw new IllegalArgumentException("no stage " + name);
+	}
+
+	/**
+	 * Returns one line with the rate and queue depth of each stage
+	 * @param start
+	 * @return
+	 */
+	private String progress(long start) {
+		StringBuilder line = new StringBuilder();
+		double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+		for (StageRunner stage : stages) {
+			if (line.length() > 0) line.append(" | ");
+			line.append(String.format("%s %.0f/s", stage.name, stage.taken.get() / seconds));
+			if (stage.queue != null) line.append(" queue ").append(stage.queue.size()).append('/').append(queueCapacity);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Returns a line per stage with its totals and first failure, and the stage whose threads were busiest
+	 * @param start
+	 * @return
+	 */
+	private String summary(long start) {
+		StringBuilder summary = new StringBuilder();
+		long elapsed = Math.max(1, System.nanoTime() - start);
+		StageRunner busiest = null;
+		for (StageRunner stage : stages) {
+			double busy = stage.busy(elapsed);
+			summary.append(String.format("%-10s %3d threads %10d items %9.0f/s %6d failed %5.1f%% busy %6.1f average queue%n",
+					stage.name, stage.threads, stage.taken.get(), stage.taken.get() / (elapsed / 1e9),
+					stage.failed.get(), busy * 100, stage.averageQueue()));
+			Exception failure = stage.firstFailure.get();
+			if (failure != null) summary.append(String.format("%-10s first failure %s%n", "", failure));
+			if (busiest == null || busy > busiest.busy(elapsed)) busiest = stage;
+		}
+		if (busiest != null) summary.append("bottleneck " + busiest.name + "\n");
+		return summary.toString();
+	}
+
+	/**
+	 * Class that represents a stage with its queue, threads and counters
+	 */
+	private static final class StageRunner {
+		final String name;
+		final int threads;
+		@SuppressWarnings("rawtypes")
+		final Stage stage;
+		final BlockingQueue<Object> queue;
+		StageRunner next;
+		final AtomicLong taken = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicReference<Exception> firstFailure = new AtomicReference<Exception>();
+		final AtomicLong busyNanos = new AtomicLong();
+		final AtomicLong queueSamples = new AtomicLong();
+		final AtomicLong queueTotal = new AtomicLong();
+		final AtomicInteger threadsRunning = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+
+		StageRunner(String name, int threads, Stage<?, ?> stage, int capacity) {
+			this.name = name;
+			this.threads = Math.max(1, threads);
+			this.stage = stage;
+			this.queue = (stage != null) ? new ArrayBlockingQueue<Object>(capacity) : null;
+		}
+
+		void start() {
+			if (stage == null) return;
+			threadsRunning.set(threads);
+			for (int i = 0; i < threads; i++) {
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						try {
+							work();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} finally {
+							finished();
+						}
+					}
+				}, name + "-" + i);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void work() throws InterruptedException {
+			Object item;
+			while ((item = queue.take()) != END) {
+				queueSamples.incrementAndGet();
+				queueTotal.addAndGet(queue.size());
+				taken.incrementAndGet();
+				long begun = System.nanoTime();
+				Object result = null;
+				try {
+					result = stage.process(item);
+				} catch (Exception e) {
+					fail(e);
+				}
+				busyNanos.addAndGet(System.nanoTime() - begun);
+				if (result != null) pass(result);
+			}
+		}
+
+		/**
+		 * Counts a failed item, keeping the exception if it is the stage's first
+		 */
+		void fail(Exception e) {
+			failed.incrementAndGet();
+			firstFailure.compareAndSet(null, e);
+		}
+
+		/**
+		 * Hands an item to the next stage, waiting while its queue is full
+		 */
+		void pass(Object item) throws InterruptedException {
+			if (next != null) next.queue.put(item);
+		}
+
+		/**
+		 * Called as each thread of the stage stops, the last one tells the next stage there is no more
+		 */
+		void finished() {
+			if (threadsRunning.decrementAndGet() > 0) return;
+			if (next != null) {
+				for (int i = 0; i < next.threads; i++) {
+					try {
+						next.queue.put(END);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+			done.countDown();
+		}
+
+		double busy(long elapsed) {
+			return (double) busyNanos.get() / ((double) elapsed * threads);
+		}
+
+		double averageQueue() {
+			long samples = queueSamples.get();
+			return (samples == 0) ? 0 : (double) queueTotal.get() / samples;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.rogersmarin.chessboard;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thinks on the opponent's time in games against the computer. Once the engine has moved, the
+ * ponderer guesses the opponent's reply with a short search and searches the position after it on a
+ * background thread, one ply deeper at a time. When the opponent's move arrives and is the one guessed
+ * the search carries on from the depth it has reached for the time given and its move is played,
+ * otherwise it is stopped and the real position is searched from scratch.
+ *
+ * One ponderer is used per game, start and respond are called by the thread handling the game.
+ * @author roger
+ *
+ */
+public class Ponderer {
+
+	private static final int PREDICTION_DEPTH = 2;
+
+	private final int maxDepth;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private Task task;
+	private int depth;
+
+	/**
+	 * @param maxDepth the deepest search made, pondering stops there until the opponent moves
+	 */
+	public Ponderer(int maxDepth) {
+		this.maxDepth = Math.max(1, maxDepth);
+	}
+
+	/**
+	 * Starts pondering, stopping any search still running
+	 * @param board the position after the engine's move, it is copied so it can go on being used
+	 */
+	public synchronized void start(ChessBoard board) {
+		cancel();
+		task = new Task(board.copy(), true);
+		task.start();
+	}
+
+	/**
+	 * Returns the reply the ponderer is searching against, or Move.NONE while it is being guessed
+	 * @return
+	 */
+	public synchronized int getPrediction() {
+		return (task != null) ? task.prediction : Move.NONE;
+	}
+
+	/**
+	 * Returns the engine's move once the opponent has moved
+	 * @param move the opponent's move
+	 * @param board the position after it
+	 * @param millis the time to search for, counted from now
+	 * @return the move to play or Move.NONE if there is no legal move
+	 * @throws InterruptedException
+	 */
+	public synchronized int respond(int move, ChessBoard board, long millis) throws InterruptedException {
+		Task search = task;
+		task = null;
+		if (search != null && search.prediction == move && move != Move.NONE) {
+			hits.incrementAndGet();
+		} else {
+			if (search != null) search.stop();
+			misses.incrementAndGet();
+			search = new Task(board.copy(), false);
+			search.start();
+		}
+		if (!search.finished.await(millis, TimeUnit.MILLISECONDS)) {
+			search.stop();
+			search.finished.await();
+		}
+		depth = search.depth;
+		MoveList moves = board.getLegalMoves();
+		if (search.best == Move.NONE && !moves.isEmpty()) return moves.get(0);
+		return search.best;
+	}
+
+	/**
+	 * Stops pondering, returns straight away as the search only reads its own copy of the board
+	 */
+	public synchronized void cancel() {
+		if (task != null) {
+			task.stop();
+			task = null;
+		}
+	}
+
+	/**
+	 * Returns the number of responses where the opponent played the move guessed
+	 * @return
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the depth fully searched for the last response, pondering included
+	 * @return
+	 */
+	public synchronized int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Class that represents a search on its own thread, deepening until stopped or the maximum depth
+	 */
+	private class Task implements Runnable {
+		private final ChessBoard position;
+		private final boolean predict;
+		private final CountDownLatch finished = new CountDownLatch(1);
+		// one engine guesses the reply and then deepens, so a stop is never lost between searches
+		private final AlphaBetaEngine engine = new AlphaBetaEngine(Math.min(PREDICTION_DEPTH, maxDepth));
+		private volatile int prediction = Move.NONE;
+		private volatile int best = Move.NONE;
+		private volatile int depth;
+
+		Task(ChessBoard position, boolean predict) {
+			this.position = position;
+			this.predict = predict;
+		}
+
+		void start() {
+			Thread thread = new Thread(this, predict ? "ponder" : "search");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		public void run() {
+			try {
+				if (predict) {
+					int reply = engine.chooseMove(position);
+					if (engine.isStopped() || reply == Move.NONE) return;
+					position.makeMove(reply);
+					prediction = reply;
+				}
+				best = engine.deepen(position, maxDepth, new AlphaBetaEngine.DepthListener() {
+					public void depthDone(int d, int move, int score, long nodes) {
+						depth = d;
+					}
+				});
+			} finally {
+				finished.countDown();
+			}
+		}
+
+		void stop() {
+			engine.stop();
+		}
+	}
+}
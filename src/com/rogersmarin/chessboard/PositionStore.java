@@ -0,0 +1,282 @@
+package com.rogersmarin.chessboard;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds large numbers of positions packed outside the Java heap so they cost the garbage collector
+ * nothing. Each position takes {@link #BYTES} bytes, half a byte per square followed by the game state
+ * word, in direct buffers of a fixed number of positions each. Positions are read through a
+ * {@link View} over the packed bytes, which only builds a ChessBoard when asked to.
+ *
+ * Adding positions is not thread safe, once filled the store can be read from many threads
+ * as long as each thread uses its own view.
+ * @author roger
+ *
+ */
+public class PositionStore {
+
+	/** Bytes taken by each position, 32 for the squares and 8 for the game state */
+	public static final int BYTES = 40;
+
+	private static final int STATE_OFFSET = 32;
+	private static final int CHUNK_SHIFT = 16;
+	private static final int CHUNK_POSITIONS = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_POSITIONS - 1;
+	private static final PieceType[] TYPES = PieceType.values();
+	private static final Colour[] COLOURS = Colour.values();
+
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private int size;
+
+	/**
+	 * Adds a position to the store
+	 * @param board
+	 * @return the index of the position
+	 */
+	public int add(ChessBoard board) {
+		ByteBuffer chunk = appendChunk();
+		int offset = (size & CHUNK_MASK) * BYTES;
+		for (int square = 0; square < 64; square += 2) {
+			chunk.put(offset + (square >> 1), (byte) (code(board.pieceAt(square)) | code(board.pieceAt(square + 1)) << 4));
+		}
+		chunk.putLong(offset + STATE_OFFSET, board.getState());
+		return size++;
+	}
+
+	/**
+	 * Adds every position of another store
+	 * @param store
+	 */
+	public void addAll(PositionStore store) {
+		View view = store.view();
+		for (int i = 0; i < store.size; i++) {
+			copy(view.moveTo(i));
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a new board set up with the position at the given index
+	 * @param index
+	 * @return
+	 */
+	public ChessBoard get(int index) {
+		return view().moveTo(index).toBoard();
+	}
+
+	/**
+	 * Returns a view that can be moved from position to position without allocating
+	 * @return
+	 */
+	public View view() {
+		return new View();
+	}
+
+	/**
+	 * Returns the number of positions the filter accepts
+	 * @param filter
+	 * @return
+	 */
+	public int count(Filter filter) {
+		View view = view();
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (filter.accept(view.moveTo(i))) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a new store holding the positions the filter accepts, in the same order
+	 * @param filter
+	 * @return
+	 */
+	public PositionStore filter(Filter filter) {
+		PositionStore accepted = new PositionStore();
+		View view = view();
+		for (int i = 0; i < size; i++) {
+			if (filter.accept(view.moveTo(i))) accepted.copy(view);
+		}
+		return accepted;
+	}
+
+	/**
+	 * Returns a new store holding the first occurrence of each position, compared by hash
+	 * @return
+	 */
+	public PositionStore distinct() {
+		final LongHashMap seen = new LongHashMap(size);
+		return filter(new Filter() {
+			public boolean accept(View position) {
+				return seen.add(position.getHash());
+			}
+		});
+	}
+
+	/**
+	 * Returns the hash of every position, equal to the hash of the board each one materializes to
+	 * @return
+	 */
+	public long[] hashes() {
+		long[] hashes = new long[size];
+		View view = view();
+		for (int i = 0; i < size; i++) {
+			hashes[i] = view.moveTo(i).getHash();
+		}
+		return hashes;
+	}
+
+	private void copy(View view) {
+		ByteBuffer chunk = appendChunk();
+		int offset = (size & CHUNK_MASK) * BYTES;
+		for (int i = 0; i < BYTES; i++) {
+			chunk.put(offset + i, view.chunk.get(view.offset + i));
+		}
+		size++;
+	}
+
+	/**
+	 * Returns the buffer the next position is written to, allocating a new one when the last is full
+	 */
+	private ByteBuffer appendChunk() {
+		if ((size >> CHUNK_SHIFT) == chunks.size()) {
+			chunks.add(ByteBuffer.allocateDirect(CHUNK_POSITIONS * BYTES));
+		}
+		return chunks.get(size >> CHUNK_SHIFT);
+	}
+
+	/**
+	 * Returns 0 for an empty square, otherwise 1 plus the piece's Zobrist index
+	 */
+	static int code(Piece piece) {
+		if (piece == null) return 0;
+		return 1 + piece.getColour().ordinal() * 6 + piece.getType().ordinal();
+	}
+
+	/**
+	 * Returns a new piece for a code other than 0 standing on the square, pawns off their starting
+	 * row are marked as moved
+	 */
+	static Piece piece(int square, int code) {
+		PieceType type = TYPES[(code - 1) % 6];
+		Colour colour = COLOURS[(code - 1) / 6];
+		Piece piece = new Piece(Coordinate.valueOf(square), type, colour);
+		int startRank = colour.equals(Colour.WHITE) ? 1 : 6;
+		piece.setMoved(!type.equals(PieceType.PAWN) || Squares.rank(square) != startRank);
+		return piece;
+	}
+
+	/**
+	 * Decides which positions a batch operation keeps
+	 */
+	public interface Filter {
+		boolean accept(View position);
+	}
+
+	/**
+	 * Class that represents a cursor over the packed positions, reading squares straight from the buffer
+	 */
+	public class View {
+		private ByteBuffer chunk;
+		private int offset;
+		private int index = -1;
+
+		/**
+		 * Points the view at the position with the given index
+		 * @param index
+		 * @return the view itself
+		 */
+		public View moveTo(int index) {
+			if (index < 0 || index >= size) throw new IndexOutOfBoundsException("position " + index + " of " + size);
+			this.index = index;
+			chunk = chunks.get(index >> CHUNK_SHIFT);
+			offset = (index & CHUNK_MASK) * BYTES;
+			return this;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Returns the type of the piece on the square or null if it is empty
+		 * @param square 0 for A1 up to 63 for H8
+		 * @return
+		 */
+		public PieceType getType(int square) {
+			int code = code(square);
+			return (code == 0) ? null : TYPES[(code - 1) % 6];
+		}
+
+		/**
+		 * Returns the colour of the piece on the square or null if it is empty
+		 * @param square
+		 * @return
+		 */
+		public Colour getColour(int square) {
+			int code = code(square);
+			return (code == 0) ? null : COLOURS[(code - 1) / 6];
+		}
+
+		public long getState() {
+			return chunk.getLong(offset + STATE_OFFSET);
+		}
+
+		public Colour getTurn() {
+			return GameState.getTurn(getState());
+		}
+
+		/**
+		 * Returns the number of pieces on the board
+		 * @return
+		 */
+		public int countPieces() {
+			int count = 0;
+			for (int i = 0; i < 32; i++) {
+				int b = chunk.get(offset + i);
+				if ((b & 15) != 0) count++;
+				if ((b & 0xf0) != 0) count++;
+			}
+			return count;
+		}
+
+		/**
+		 * Returns the Zobrist hash of the position computed from the packed squares
+		 * @return
+		 */
+		public long getHash() {
+			long h = Zobrist.state(getState());
+			for (int i = 0; i < 32; i++) {
+				int b = chunk.get(offset + i);
+				if ((b & 15) != 0) h ^= Zobrist.PIECES[(b & 15) - 1][i << 1];
+				if ((b & 0xf0) != 0) h ^= Zobrist.PIECES[((b >> 4) & 15) - 1][(i << 1) + 1];
+			}
+			return h;
+		}
+
+		/**
+		 * Returns a new board set up with the position. Pawns off their starting row are marked as moved
+		 * @return
+		 */
+		public ChessBoard toBoard() {
+			ChessBoard board = new ChessBoard(Colour.WHITE);
+			for (int square = 0; square < 64; square++) {
+				int code = code(square);
+				if (code == 0) continue;
+				board.place(square, piece(square, code));
+			}
+			board.setState(getState());
+			return board;
+		}
+
+		private int code(int square) {
+			int b = chunk.get(offset + (square >> 1));
+			return ((square & 1) == 0) ? b & 15 : (b >> 4) & 15;
+		}
+	}
+}
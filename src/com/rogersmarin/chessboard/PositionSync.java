@@ -0,0 +1,250 @@
+package com.rogersmarin.chessboard;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps copies of a board on other nodes up to date with a few bytes per move. The sending side
+ * holds the last position it published and a version counter, and sends either the full position
+ * or the squares and game state that changed since, tagged with the version they apply to. The
+ * receiving side holds a {@link Replica} which only applies a change made from its own version, so
+ * a lost or reordered message is detected and answered by sending the full position again.
+ *
+ * A full position is a type byte, the version, a long with a bit per occupied square, half a byte
+ * per piece in square order and the game state word, 29 bytes for the starting position. A change is
+ * a type byte, the version it applies to, the new version, the game state XOR the old one, the number
+ * of squares changed and two bytes for each: the square and the piece now on it using the same piece
+ * codes as {@link PositionStore}, 0 when it was emptied. A move changes two squares, castling and en
+ * passant three or four, a promotion writes the new piece on its square, so most moves take 9 to 12 bytes.
+ * Numbers are written 7 bits to a byte, the lowest first, with the top bit set on all but the last byte.
+ *
+ * Only the position is sent, the replica's boards have no moves to take back or earlier positions
+ * for repetitions. Neither side is thread safe.
+ * @author roger
+ *
+ */
+public class PositionSync {
+
+	/** Type byte of a full position */
+	public static final byte FULL = 1;
+	/** Type byte of the changes between two versions */
+	public static final byte DELTA = 2;
+
+	private final int[] codes = new int[64];
+	private long state;
+	private long version;
+
+	/**
+	 * Starts publishing the position of the board as version 0
+	 * @param board
+	 */
+	public PositionSync(ChessBoard board) {
+		for (int square = 0; square < 64; square++) {
+			codes[square] = PositionStore.code(board.pieceAt(square));
+		}
+		state = board.getState();
+	}
+
+	/**
+	 * Returns the version of the last position published
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the last position published in full, for a new replica or one that is out of step
+	 * @return
+	 */
+	public byte[] encode() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+		out.write(FULL);
+		writeNumber(out, version);
+		long occupied = 0;
+		for (int square = 0; square < 64; square++) {
+			if (codes[square] != 0) occupied |= 1L << square;
+		}
+		for (int i = 0; i < 8; i++) {
+			out.write((int) (occupied >>> (i * 8)));
+		}
+		int half = -1;
+		for (int square = 0; square < 64; square++) {
+			if (codes[square] == 0) continue;
+			if (half < 0) {
+				half = codes[square];
+			} else {
+				out.write(half | codes[square] << 4);
+				half = -1;
+			}
+		}
+		if (half >= 0) out.write(half);
+		writeNumber(out, state);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Publishes the board's position as the next version
+	 * @param board
+	 * @return the changes since the last position published
+	 */
+	public byte[] update(ChessBoard board) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+		out.write(DELTA);
+		writeNumber(out, version);
+		writeNumber(out, ++version);
+		writeNumber(out, board.getState() ^ state);
+		state = board.getState();
+		int changed = 0;
+		byte[] squares = new byte[128];
+		for (int square = 0; square < 64; square++) {
+			int code = PositionStore.code(board.pieceAt(square));
+			if (code == codes[square]) continue;
+			codes[square] = code;
+			squares[changed * 2] = (byte) square;
+			squares[changed * 2 + 1] = (byte) code;
+			changed++;
+		}
+		out.write(changed);
+		out.write(squares, 0, changed * 2);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns a new board set up with a full position
+	 * @param message
+	 * @return
+	 * @throws IllegalArgumentException if the message is not a full position
+	 */
+	public static ChessBoard decode(byte[] message) {
+		ByteBuffer in = ByteBuffer.wrap(message);
+		try {
+			if (in.get() != FULL) throw new IllegalArgumentException("not a full position");
+			readNumber(in);
+			return readPosition(in);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("truncated position", e);
+		}
+	}
+
+	/**
+	 * Returns the version a full position or a change leads to
+	 * @param message
+	 * @return
+	 */
+	public static long getVersion(byte[] message) {
+		ByteBuffer in = ByteBuffer.wrap(message);
+		byte type = in.get();
+		if (type == DELTA) readNumber(in);
+		return readNumber(in);
+	}
+
+	private static ChessBoard readPosition(ByteBuffer in) {
+		long occupied = 0;
+		for (int i = 0; i < 8; i++) {
+			occupied |= (long) (in.get() & 0xff) << (i * 8);
+		}
+		ChessBoard board = new ChessBoard(Colour.WHITE);
+		int half = -1;
+		for (int square = 0; square < 64; square++) {
+			if ((occupied & 1L << square) == 0) continue;
+			int code;
+			if (half < 0) {
+				half = in.get() & 0xff;
+				code = half & 15;
+			} else {
+				code = half >> 4;
+				half = -1;
+			}
+			if (code == 0 || code > 12) throw new IllegalArgumentException("invalid piece code " + code);
+			board.place(square, PositionStore.piece(square, code));
+		}
+		board.setState(readNumber(in));
+		return board;
+	}
+
+	private static void writeNumber(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7fL) != 0) {
+			out.write((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static long readNumber(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.get() & 0xff;
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IllegalArgumentException("number too long");
+	}
+
+	/**
+	 * Class that represents the copy of a position on the receiving side
+	 */
+	public static class Replica {
+		private ChessBoard board;
+		private long version = -1;
+
+		/**
+		 * Returns the board, replaced by a new one when a full position is applied
+		 * @return the board or null until a full position has been applied
+		 */
+		public ChessBoard getBoard() {
+			return board;
+		}
+
+		/**
+		 * Returns the version of the position held, -1 until a full position has been applied
+		 * @return
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Applies a full position or a change, returns false without changing anything if the change is
+		 * not from the version held, in which case the full position should be asked for
+		 * @param message
+		 * @return
+		 * @throws IllegalArgumentException if the message is not valid
+		 */
+		public boolean apply(byte[] message) {
+			ByteBuffer in = ByteBuffer.wrap(message);
+			try {
+				byte type = in.get();
+				if (type == FULL) {
+					long full = readNumber(in);
+					board = readPosition(in);
+					version = full;
+					return true;
+				}
+				if (type != DELTA) throw new IllegalArgumentException("unknown message type " + type);
+				if (board == null || readNumber(in) != version) return false;
+				long next = readNumber(in);
+				long state = board.getState() ^ readNumber(in);
+				int changed = in.get() & 0xff;
+				if (changed > 64 || in.remaining() < changed * 2) throw new IllegalArgumentException("truncated change");
+				// checked in full before the board is touched so a bad message leaves it as it was
+				for (int i = 0; i < changed; i++) {
+					int square = in.get(in.position() + i * 2) & 0xff;
+					int code = in.get(in.position() + i * 2 + 1) & 0xff;
+					if (square > 63 || code > 12) throw new IllegalArgumentException("invalid square " + square + " or piece code " + code);
+				}
+				for (int i = 0; i < changed; i++) {
+					int square = in.get() & 0xff;
+					int code = in.get() & 0xff;
+					board.place(square, (code == 0) ? null : PositionStore.piece(square, code));
+				}
+				board.setState(state);
+				version = next;
+				return true;
+			} catch (BufferUnderflowException e) {
+				throw new IllegalArgumentException("truncated message", e);
+			}
+		}
+	}
+}
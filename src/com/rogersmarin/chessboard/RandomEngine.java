@@ -0,0 +1,27 @@
+package com.rogersmarin.chessboard;
+
+import java.util.Random;
+
+/**
+ * Engine that plays a random legal move
+ * @author roger
+ *
+ */
+public class RandomEngine implements Engine {
+
+	private final Random random;
+
+	public RandomEngine(long seed) {
+		random = new Random(seed);
+	}
+
+	public int chooseMove(ChessBoard board) {
+		MoveList moves = board.getLegalMoves();
+		if (moves.isEmpty()) return Move.NONE;
+		return moves.get(random.nextInt(moves.size()));
+	}
+
+	public String getName() {
+		return "random";
+	}
+}
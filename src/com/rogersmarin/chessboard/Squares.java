@@ -0,0 +1,66 @@
+package com.rogersmarin.chessboard;
+
+/**
+ * Precomputed square geometry shared by the board, squares are numbered
+ * from 0 for A1 to 63 for H8 and sets of squares are held as 64 bit masks
+ * @author roger
+ *
+ */
+final class Squares {
+
+	static final int[][] ROOK_DIRECTIONS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+	static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+	static final int[][] KNIGHT_OFFSETS = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+	static final int[][] KING_OFFSETS = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+
+	static final long[] KNIGHT_ATTACKS = new long[64];
+	static final long[] KING_ATTACKS = new long[64];
+	/** Squares attacked by a pawn, indexed by the pawn colour ordinal and its square */
+	static final long[][] PAWN_ATTACKS = new long[2][64];
+
+	static {
+		for (int square = 0; square < 64; square++) {
+			KNIGHT_ATTACKS[square] = offsets(square, KNIGHT_OFFSETS);
+			KING_ATTACKS[square] = offsets(square, KING_OFFSETS);
+			PAWN_ATTACKS[Colour.WHITE.ordinal()][square] = offsets(square, new int[][] {{-1, 1}, {1, 1}});
+			PAWN_ATTACKS[Colour.BLACK.ordinal()][square] = offsets(square, new int[][] {{-1, -1}, {1, -1}});
+		}
+	}
+
+	private Squares() {}
+
+	static int file(int square) {
+		return square & 7;
+	}
+
+	static int rank(int square) {
+		return square >> 3;
+	}
+
+	static long bit(int square) {
+		return 1L << square;
+	}
+
+	/**
+	 * Returns the square offset from the given square or -1 if it falls off the board
+	 * @param square
+	 * @param fileOffset
+	 * @param rankOffset
+	 * @return
+	 */
+	static int offset(int square, int fileOffset, int rankOffset) {
+		int file = file(square) + fileOffset;
+		int rank = rank(square) + rankOffset;
+		if (file < 0 || file > 7 || rank < 0 || rank > 7) return -1;
+		return rank * 8 + file;
+	}
+
+	private static long offsets(int square, int[][] offsets) {
+		long mask = 0L;
+		for (int[] offset : offsets) {
+			int target = offset(square, offset[0], offset[1]);
+			if (target >= 0) mask |= bit(target);
+		}
+		return mask;
+	}
+}
@@ -0,0 +1,277 @@
+package com.rogersmarin.chessboard;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class that probes endgame tables written by {@link TablebaseGenerator}. Each table holds one byte
+ * per position of a material signature such as KQK, indexed by the side to move and the square of
+ * every piece. Tables are memory mapped the first time they are needed.
+ * @author roger
+ *
+ */
+public class Tablebase {
+
+	public static final int WIN = 1;
+	public static final int DRAW = 0;
+	public static final int LOSS = -1;
+	/** Returned when there is no table for the material on the board */
+	public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+	/** Table files hold at most this many pieces, kings included */
+	static final int MAX_PIECES = 4;
+	static final String EXTENSION = ".cbtb";
+
+	static final byte ILLEGAL = -128;
+	static final byte UNRESOLVED = 127;
+
+	private static final int MAGIC = 0x43425442;
+	private static final int VERSION = 1;
+	private static final PieceType[] ORDER = {PieceType.KING, PieceType.QUEEN, PieceType.ROOK, PieceType.BISHOP, PieceType.KNIGHT, PieceType.PAWN};
+	private static final int[] VALUES = {0, 9, 5, 3, 3, 1};
+	private static final ByteBuffer MISSING = ByteBuffer.allocate(0);
+
+	private final File directory;
+	private final ConcurrentHashMap<String, ByteBuffer> tables = new ConcurrentHashMap<String, ByteBuffer>();
+
+	/**
+	 * @param directory the directory holding the table files
+	 */
+	public Tablebase(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns WIN, DRAW or LOSS for the side to move, or NOT_FOUND if there is no table for the position
+	 * @param board
+	 * @return
+	 */
+	public int probeWDL(ChessBoard board) {
+		int value = probeValue(board);
+		if (value == NOT_FOUND) return NOT_FOUND;
+		return isWin((byte) value) ? WIN : isLoss((byte) value) ? LOSS : DRAW;
+	}
+
+	/**
+	 * Returns the number of plies until mate with best play from both sides, 0 for drawn positions
+	 * and for a side that is already checkmated, or -1 if there is no table for the position
+	 * @param board
+	 * @return
+	 */
+	public int probeDTM(ChessBoard board) {
+		int value = probeValue(board);
+		if (value == NOT_FOUND) return -1;
+		return (value == DRAW) ? 0 : plies((byte) value);
+	}
+
+	/**
+	 * Returns the raw table value for the position or NOT_FOUND
+	 * @param board
+	 * @return
+	 */
+	int probeValue(ChessBoard board) {
+		Key key = key(board);
+		if (key == null) return NOT_FOUND;
+		if (key.signature.equals("KK")) return DRAW;
+		ByteBuffer table = table(key.signature);
+		if (table == MISSING) return NOT_FOUND;
+		byte value = table.get(key.index);
+		return (value == ILLEGAL) ? NOT_FOUND : value;
+	}
+
+	private ByteBuffer table(String signature) {
+		ByteBuffer table = tables.get(signature);
+		if (table == null) {
+			table = map(new File(directory, signature + EXTENSION));
+			tables.putIfAbsent(signature, table);
+		}
+		return table;
+	}
+
+	private static ByteBuffer map(File file) {
+		if (!file.isFile()) return MISSING;
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			int header;
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) return MISSING;
+				header = 8 + 2 + in.readUTF().getBytes("UTF-8").length;
+			} finally {
+				in.close();
+			}
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				return channel.map(FileChannel.MapMode.READ_ONLY, header, channel.size() - header);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return MISSING;
+		}
+	}
+
+	/**
+	 * Writes a table file
+	 * @param directory
+	 * @param signature
+	 * @param values
+	 * @throws IOException
+	 */
+	static void write(File directory, String signature, byte[] values) throws IOException {
+		File tmp = new File(directory, signature + EXTENSION + ".tmp");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(signature);
+			out.write(values);
+		} finally {
+			out.close();
+		}
+		File file = new File(directory, signature + EXTENSION);
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) throw new IOException("could not write " + file);
+		}
+	}
+
+	static boolean isWin(byte value) {
+		return value > 0 && value != UNRESOLVED;
+	}
+
+	static boolean isLoss(byte value) {
+		return value < 0 && value != ILLEGAL;
+	}
+
+	/**
+	 * Returns the plies to mate held by a won or lost value
+	 */
+	static int plies(byte value) {
+		return (value > 0) ? value : -value - 1;
+	}
+
+	static byte win(int plies) {
+		return (byte) plies;
+	}
+
+	static byte loss(int plies) {
+		return (byte) (-plies - 1);
+	}
+
+	/**
+	 * Returns the position of the type in the signature order K, Q, R, B, N, P
+	 */
+	static int order(PieceType type) {
+		for (int i = 0; i < ORDER.length; i++) {
+			if (ORDER[i] == type) return i;
+		}
+		return -1;
+	}
+
+	static PieceType typeOf(char letter) {
+		for (PieceType type : ORDER) {
+			if (type.getLetter() == letter) return type;
+		}
+		throw new IllegalArgumentException("invalid piece letter " + letter);
+	}
+
+	/**
+	 * Returns the signature with the stronger side first, e.g KQK for both KQK and KKQ
+	 * @param signature
+	 * @return
+	 */
+	static String canonical(String signature) {
+		int split = signature.indexOf('K', 1);
+		String first = sort(signature.substring(0, split));
+		String second = sort(signature.substring(split));
+		return (compare(first, second) >= 0) ? first + second : second + first;
+	}
+
+	private static String sort(String side) {
+		int[] codes = new int[side.length()];
+		for (int i = 0; i < codes.length; i++) codes[i] = order(typeOf(side.charAt(i))) * 64;
+		return letters(codes, codes.length);
+	}
+
+	private static int compare(String first, String second) {
+		int weight = weight(first) - weight(second);
+		if (weight != 0) return weight;
+		if (first.length() != second.length()) return first.length() - second.length();
+		return second.compareTo(first);
+	}
+
+	private static int weight(String side) {
+		int weight = 0;
+		for (int i = 0; i < side.length(); i++) weight += VALUES[order(typeOf(side.charAt(i)))];
+		return weight;
+	}
+
+	/**
+	 * Class that represents the table and index a position is stored under
+	 */
+	static final class Key {
+		String signature;
+		int index;
+	}
+
+	/**
+	 * Returns the table key for a board or null if it has too many pieces. The side holding the
+	 * first half of the canonical signature is treated as white, mirroring the board if needed,
+	 * and pieces of the same type are ordered by square so each position has a single index
+	 * @param board
+	 * @return
+	 */
+	static Key key(ChessBoard board) {
+		int[] white = new int[MAX_PIECES], black = new int[MAX_PIECES];
+		int whiteCount = 0, blackCount = 0;
+		for (int square = 0; square < 64; square++) {
+			Piece p = board.pieceAt(square);
+			if (p == null) continue;
+			if (whiteCount + blackCount == MAX_PIECES) return null;
+			int code = order(p.getType()) * 64 + square;
+			if (p.isBlack()) {
+				black[blackCount++] = code;
+			} else {
+				white[whiteCount++] = code;
+			}
+		}
+		String whitePart = letters(white, whiteCount), blackPart = letters(black, blackCount);
+		if (!whitePart.startsWith("K") || !blackPart.startsWith("K")) return null;
+		boolean flip = compare(whitePart, blackPart) < 0;
+		Key key = new Key();
+		key.signature = flip ? blackPart + whitePart : whitePart + blackPart;
+		boolean firstToMove = board.getTurn().equals(flip ? Colour.BLACK : Colour.WHITE);
+		int index = firstToMove ? 0 : 1;
+		index = appendSquares(index, flip ? black : white, flip ? blackCount : whiteCount, flip);
+		index = appendSquares(index, flip ? white : black, flip ? whiteCount : blackCount, flip);
+		key.index = index;
+		return key;
+	}
+
+	private static String letters(int[] codes, int count) {
+		Arrays.sort(codes, 0, count);
+		StringBuilder buff = new StringBuilder(count);
+		for (int i = 0; i < count; i++) buff.append(ORDER[codes[i] / 64].getLetter());
+		return buff.toString();
+	}
+
+	private static int appendSquares(int index, int[] codes, int count, boolean flip) {
+		if (flip) {
+			for (int i = 0; i < count; i++) codes[i] ^= 56;
+			Arrays.sort(codes, 0, count);
+		}
+		for (int i = 0; i < count; i++) index = index * 64 + (codes[i] & 63);
+		return index;
+	}
+}
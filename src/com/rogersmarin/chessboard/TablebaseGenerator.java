@@ -0,0 +1,289 @@
+package com.rogersmarin.chessboard;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates endgame tables by retrograde analysis with the board's own move generator.
+ * Every position of a signature is set up once to record its legal moves, then repeated passes
+ * resolve wins at odd plies and losses at even plies until nothing changes. Positions that are never
+ * resolved are draws. Captures and promotions are looked up in the smaller tables, which are
+ * generated first. Each pass is split across a pool of worker threads.
+ * @author roger
+ *
+ */
+public class TablebaseGenerator {
+
+	private static final int CHUNKS_PER_THREAD = 8;
+
+	private final File directory;
+	private final int threads;
+	private final Tablebase tablebase;
+
+	/**
+	 * @param directory the directory the tables are written to and read back from
+	 * @param threads
+	 */
+	public TablebaseGenerator(File directory, int threads) {
+		this.directory = directory;
+		this.threads = threads;
+		this.tablebase = new Tablebase(directory);
+	}
+
+	/**
+	 * Generates the table for a signature such as KQK, together with any smaller table it depends on
+	 * that is not already in the directory
+	 * @param signature
+	 * @param report where the time taken by each table is printed, or null
+	 * @throws Exception
+	 */
+	public void generate(String signature, PrintStream report) throws Exception {
+		signature = Tablebase.canonical(signature);
+		if (signature.length() <= 2 || new File(directory, signature + Tablebase.EXTENSION).isFile()) return;
+		if (signature.length() > Tablebase.MAX_PIECES) {
+			throw new IllegalArgumentException(signature + " has more than " + Tablebase.MAX_PIECES + " pieces");
+		}
+		for (String dependency : dependencies(signature)) {
+			generate(dependency, report);
+		}
+		long start = System.nanoTime();
+		byte[] values = solve(signature);
+		Tablebase.write(directory, signature, values);
+		if (report != null) report.println(signature + " generated in " + (System.nanoTime() - start) / 1000000 + "ms");
+	}
+
+	/**
+	 * Returns the signatures reached by capturing a piece or promoting a pawn
+	 */
+	private static List<String> dependencies(String signature) {
+		List<String> dependencies = new ArrayList<String>();
+		int split = signature.indexOf('K', 1);
+		for (int i = 0; i < signature.length(); i++) {
+			char letter = signature.charAt(i);
+			if (letter == 'K') continue;
+			dependencies.add(signature.substring(0, i) + signature.substring(i + 1));
+			if (letter == 'P') {
+				boolean first = i < split;
+				for (char promotion : new char[] {'Q', 'R', 'B', 'N'}) {
+					String promoted = signature.substring(0, i) + signature.substring(i + 1);
+					int at = first ? 1 : split;
+					dependencies.add(promoted.substring(0, at) + promotion + promoted.substring(at));
+				}
+			}
+		}
+		return dependencies;
+	}
+
+	private byte[] solve(final String signature) throws Exception {
+		final int size = 2 << (6 * signature.length());
+		final byte[] values = new byte[size];
+		final int[][] children = new int[size][];
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			// first pass, record the moves of every position and mark mates, stalemates and illegal positions
+			int furthest = 0;
+			for (Integer external : runChunks(pool, size, new ChunkTask() {
+				public int run(int from, int to) {
+					return setUp(signature, from, to, values, children);
+				}
+			})) {
+				furthest = Math.max(furthest, external);
+			}
+			for (int plies = 1; plies < Tablebase.UNRESOLVED; plies++) {
+				final int n = plies;
+				int resolved = 0;
+				for (Integer count : runChunks(pool, size, new ChunkTask() {
+					public int run(int from, int to) {
+						return resolve(n, from, to, values, children);
+					}
+				})) {
+					resolved += count;
+				}
+				if (resolved == 0 && plies > furthest) break;
+			}
+		} finally {
+			pool.shutdown();
+		}
+		for (int i = 0; i < size; i++) {
+			if (values[i] == Tablebase.UNRESOLVED) values[i] = Tablebase.DRAW;
+		}
+		return values;
+	}
+
+	/**
+	 * Work done on a range of table indexes
+	 */
+	private interface ChunkTask {
+		int run(int from, int to);
+	}
+
+	private List<Integer> runChunks(ExecutorService pool, int size, final ChunkTask task) throws Exception {
+		int chunks = threads * CHUNKS_PER_THREAD;
+		int chunkSize = (size + chunks - 1) / chunks;
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int start = 0; start < size; start += chunkSize) {
+			final int from = start, to = Math.min(size, start + chunkSize);
+			futures.add(pool.submit(new Callable<Integer>() {
+				public Integer call() {
+					return task.run(from, to);
+				}
+			}));
+		}
+		List<Integer> results = new ArrayList<Integer>();
+		for (Future<Integer> future : futures) {
+			results.add(future.get());
+		}
+		return results;
+	}
+
+	/**
+	 * Sets up each position in the range and records its children, a child in the same table is
+	 * held as its index and a child in another table as -1 minus its unsigned table value
+	 * @return the furthest mate distance reached through another table
+	 */
+	private int setUp(String signature, int from, int to, byte[] values, int[][] children) {
+		int pieceCount = signature.length();
+		int split = signature.indexOf('K', 1);
+		ChessBoard board = new ChessBoard(Colour.WHITE);
+		Piece[] pieces = new Piece[pieceCount];
+		int[] squares = new int[pieceCount];
+		int furthest = 0;
+		for (int index = from; index < to; index++) {
+			for (int i = 0; i < pieceCount; i++) {
+				if (pieces[i] != null) board.place(pieces[i].getPosition().getSquare(), null);
+			}
+			if (!decode(signature, split, index, pieces, squares)) {
+				values[index] = Tablebase.ILLEGAL;
+				continue;
+			}
+			for (int i = 0; i < pieceCount; i++) {
+				board.place(squares[i], pieces[i]);
+			}
+			board.setTurn((index >> (6 * pieceCount)) == 0 ? Colour.WHITE : Colour.BLACK);
+			Tablebase.Key key = Tablebase.key(board);
+			if (key.index != index || board.isCheck(board.getTurn().equals(Colour.WHITE) ? Colour.BLACK : Colour.WHITE)) {
+				values[index] = Tablebase.ILLEGAL;
+				continue;
+			}
+			MoveList moves = board.getLegalMoves();
+			if (moves.isEmpty()) {
+				values[index] = board.isCheck(board.getTurn()) ? Tablebase.loss(0) : Tablebase.DRAW;
+				continue;
+			}
+			int[] moveChildren = new int[moves.size()];
+			for (int i = 0; i < moves.size(); i++) {
+				int move = moves.get(i);
+				boolean sameTable = board.pieceAt(Move.getTo(move)) == null && Move.getPromotion(move) == null;
+				board.makeMove(move);
+				if (sameTable) {
+					moveChildren[i] = Tablebase.key(board).index;
+				} else {
+					int value = tablebase.probeValue(board);
+					if (value == Tablebase.NOT_FOUND) throw new IllegalStateException("missing table for " + board);
+					if (value != Tablebase.DRAW) furthest = Math.max(furthest, Tablebase.plies((byte) value) + 1);
+					moveChildren[i] = -1 - (value & 0xff);
+				}
+				board.unmakeMove();
+			}
+			values[index] = Tablebase.UNRESOLVED;
+			children[index] = moveChildren;
+		}
+		return furthest;
+	}
+
+	/**
+	 * Creates the pieces for an index, returning false if two pieces share a square or a pawn
+	 * stands on the first or last row
+	 */
+	private static boolean decode(String signature, int split, int index, Piece[] pieces, int[] squares) {
+		long occupied = 0L;
+		for (int i = signature.length() - 1; i >= 0; i--) {
+			int square = index & 63;
+			index >>= 6;
+			PieceType type = Tablebase.typeOf(signature.charAt(i));
+			if ((occupied & Squares.bit(square)) != 0) return false;
+			if (type.equals(PieceType.PAWN) && (Squares.rank(square) == 0 || Squares.rank(square) == 7)) return false;
+			occupied |= Squares.bit(square);
+			squares[i] = square;
+			pieces[i] = new Piece(Coordinate.valueOf(square), type, (i < split) ? Colour.WHITE : Colour.BLACK);
+			pieces[i].setMoved(true);
+		}
+		return true;
+	}
+
+	/**
+	 * Resolves the positions in the range that are won or lost in exactly the given number of plies
+	 * @return the number of positions resolved
+	 */
+	private static int resolve(int plies, int from, int to, byte[] values, int[][] children) {
+		boolean winning = (plies & 1) == 1;
+		int resolved = 0;
+		for (int index = from; index < to; index++) {
+			if (values[index] != Tablebase.UNRESOLVED) continue;
+			int[] moveChildren = children[index];
+			if (winning) {
+				for (int child : moveChildren) {
+					byte value = value(child, values);
+					if (Tablebase.isLoss(value) && Tablebase.plies(value) == plies - 1) {
+						values[index] = Tablebase.win(plies);
+						resolved++;
+						break;
+					}
+				}
+			} else {
+				int longest = -1;
+				for (int child : moveChildren) {
+					byte value = value(child, values);
+					if (!Tablebase.isWin(value)) {
+						longest = -1;
+						break;
+					}
+					longest = Math.max(longest, Tablebase.plies(value));
+				}
+				if (longest == plies - 1) {
+					values[index] = Tablebase.loss(plies);
+					resolved++;
+				}
+			}
+			if (values[index] != Tablebase.UNRESOLVED) children[index] = null;
+		}
+		return resolved;
+	}
+
+	private static byte value(int child, byte[] values) {
+		return (child >= 0) ? values[child] : (byte) (-1 - child);
+	}
+
+	/**
+	 * Generates tables from the command line
+	 * @param args the output directory, then the signatures e.g KQK KRK KPK, then optionally -threads count
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("usage: TablebaseGenerator <directory> <signature>... [-threads n]");
+			return;
+		}
+		File directory = new File(args[0]);
+		directory.mkdirs();
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> signatures = new ArrayList<String>();
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else {
+				signatures.add(args[i].toUpperCase());
+			}
+		}
+		TablebaseGenerator generator = new TablebaseGenerator(directory, threads);
+		for (String signature : signatures) {
+			generator.generate(signature, System.out);
+		}
+	}
+}
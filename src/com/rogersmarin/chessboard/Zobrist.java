@@ -0,0 +1,53 @@
+package com.rogersmarin.chessboard;
+
+import java.util.Random;
+
+/**
+ * Random keys used to hash positions, a position's hash is the exclusive or of the keys
+ * of its pieces, the side to move, the castling rights and the en passant file. The keys come
+ * from a fixed seed so hashes are the same from one run to the next.
+ * @author roger
+ *
+ */
+final class Zobrist {
+
+	/** Keys indexed by colour ordinal * 6 + piece type ordinal, then square */
+	static final long[][] PIECES = new long[12][64];
+	static final long BLACK_TO_MOVE;
+	/** Keys indexed by the castling rights flags */
+	static final long[] CASTLING = new long[16];
+	/** Keys indexed by the en passant file */
+	static final long[] EN_PASSANT = new long[8];
+
+	static {
+		Random random = new Random(0x5EED5EEDL);
+		for (long[] keys : PIECES) {
+			for (int square = 0; square < 64; square++) {
+				keys[square] = random.nextLong();
+			}
+		}
+		BLACK_TO_MOVE = random.nextLong();
+		for (int rights = 1; rights < CASTLING.length; rights++) {
+			CASTLING[rights] = random.nextLong();
+		}
+		for (int file = 0; file < EN_PASSANT.length; file++) {
+			EN_PASSANT[file] = random.nextLong();
+		}
+	}
+
+	private Zobrist() {}
+
+	/**
+	 * Returns the keys for the parts of the game state that are hashed
+	 */
+	static long state(long state) {
+		long h = (GameState.getTurn(state).equals(Colour.BLACK)) ? BLACK_TO_MOVE : 0L;
+		h ^= CASTLING[GameState.getCastlingRights(state)];
+		int file = GameState.getEnPassantFile(state);
+		return (file >= 0) ? h ^ EN_PASSANT[file] : h;
+	}
+
+	static long piece(Piece piece, int square) {
+		return PIECES[piece.getColour().ordinal() * 6 + piece.getType().ordinal()][square];
+	}
+}
@@ -0,0 +1,178 @@
+package com.rogersmarin.chessboard.test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.rogersmarin.chessboard.ChessBoard;
+import com.rogersmarin.chessboard.Coordinate;
+import com.rogersmarin.chessboard.MoveResult;
+import com.rogersmarin.chessboard.Piece;
+
+/**
+ * Replays scripted games without rendering the board, used for load testing and
+ * replaying recorded traffic. Each game is played on its own board by a pool of worker threads
+ * and one report line is written per game in input order.
+ *
+ * The input holds one command per line, a line starting with "game" begins a new game and
+ * the rest of the line names it. Moves use the same format as Main e.g a2a3, "reset" resets
+ * the game's board, blank lines and lines starting with # are ignored.
+ * @author roger
+ *
+ */
+public class BatchRunner {
+
+	private final int threads;
+
+	public BatchRunner(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Reads every game from the input, replays them and writes the report
+	 * @param in
+	 * @param report
+	 * @throws Exception
+	 */
+	public void run(BufferedReader in, PrintWriter report) throws Exception {
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<GameResult>> results = new ArrayList<Future<GameResult>>();
+		try {
+			Game game = null;
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) continue;
+				if (line.startsWith("game")) {
+					if (game != null) results.add(pool.submit(game));
+					game = new Game(line.substring(4).trim());
+				} else {
+					if (game == null) game = new Game(String.valueOf(results.size() + 1));
+					game.commands.add(line);
+				}
+			}
+			if (game != null) results.add(pool.submit(game));
+
+			long moves = 0;
+			report.println("game\tmoves\tresult\tmicros\terror");
+			for (Future<GameResult> future : results) {
+				GameResult result = future.get();
+				moves += result.moves;
+				report.println(result.name + "\t" + result.moves + "\t" + result.status + "\t"
+						+ result.micros + "\t" + (result.error != null ? result.error : ""));
+			}
+			long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+			report.println("# " + results.size() + " games, " + moves + " moves in " + millis + "ms on "
+					+ threads + " threads, " + (moves * 1000 / millis) + " moves/s");
+			report.flush();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Class that represents a scripted game waiting to be replayed
+	 */
+	private static class Game implements Callable<GameResult> {
+		private final String name;
+		private final List<String> commands = new ArrayList<String>();
+
+		Game(String name) {
+			this.name = name;
+		}
+
+		public GameResult call() throws Exception {
+			GameResult result = new GameResult(name);
+			long start = System.nanoTime();
+			ChessBoard board = new ChessBoard();
+			MoveResult moveResult = new MoveResult();
+			for (String command : commands) {
+				if (command.equals("reset")) {
+					board.reset();
+					result.status = "active";
+					continue;
+				}
+				if (!result.status.equals("active")) {
+					result.error = command + " played after the game ended";
+					break;
+				}
+				if (!Main.validMoveString(command)) {
+					result.error = "could not parse " + command;
+					break;
+				}
+				String[] moves = Main.getMoves(command);
+				Coordinate from = Main.parseCoordinate(moves[0].substring(0,1).toLowerCase(), Integer.parseInt(moves[0].substring(1)));
+				Coordinate to = Main.parseCoordinate(moves[1].substring(0,1).toLowerCase(), Integer.parseInt(moves[1].substring(1)));
+				Piece piece = board.getPieceAt(from);
+				if (piece == null || !piece.getColour().equals(board.getTurn())
+						|| !piece.checkBoard(to, board, moveResult).isValid()) {
+					result.error = command + " is not a valid move";
+					break;
+				}
+				result.moves++;
+				if (moveResult.getStatus() == MoveResult.CHECKMATE) {
+					result.status = piece.getColour().getColour() + " wins";
+				} else if (moveResult.getStatus() == MoveResult.STALEMATE) {
+					result.status = "stalemate";
+				} else if (moveResult.getStatus() == MoveResult.DRAW) {
+					result.status = "draw";
+				}
+			}
+			result.micros = (System.nanoTime() - start) / 1000;
+			return result;
+		}
+	}
+
+	/**
+	 * Class that represents the outcome of a replayed game
+	 */
+	private static class GameResult {
+		private final String name;
+		private int moves;
+		private String status = "active";
+		private String error;
+		private long micros;
+
+		GameResult(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Runs the batch from the command line
+	 * @param args input file or - for standard input, then optional -report file and -threads count
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String input = "-";
+		String reportFile = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-report") && i + 1 < args.length) {
+				reportFile = args[++i];
+			} else if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else {
+				input = args[i];
+			}
+		}
+		BufferedReader in = input.equals("-") ? new BufferedReader(new InputStreamReader(System.in))
+				: new BufferedReader(new FileReader(input));
+		PrintWriter report = (reportFile == null) ? new PrintWriter(System.out) : new PrintWriter(new FileWriter(reportFile));
+		try {
+			new BatchRunner(threads).run(in, report);
+		} finally {
+			in.close();
+			report.close();
+		}
+	}
+}
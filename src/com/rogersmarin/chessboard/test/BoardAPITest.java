@@ -3,14 +3,53 @@ package com.rogersmarin.chessboard.test;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.BufferedReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.rogersmarin.chessboard.AlphaBetaEngine;
 import com.rogersmarin.chessboard.ChessBoard;
+import com.rogersmarin.chessboard.Colour;
 import com.rogersmarin.chessboard.Coordinate;
+import com.rogersmarin.chessboard.FeatureExporter;
+import com.rogersmarin.chessboard.GameJournal;
+import com.rogersmarin.chessboard.GameState;
+import com.rogersmarin.chessboard.LongHashMap;
+import com.rogersmarin.chessboard.MctsEngine;
+import com.rogersmarin.chessboard.Move;
+import com.rogersmarin.chessboard.MoveEvent;
+import com.rogersmarin.chessboard.MoveEventStream;
+import com.rogersmarin.chessboard.MoveGeneratorFuzzer;
+import com.rogersmarin.chessboard.MoveList;
+import com.rogersmarin.chessboard.MovePicker;
+import com.rogersmarin.chessboard.MoveResult;
 import com.rogersmarin.chessboard.Piece;
 import com.rogersmarin.chessboard.PieceType;
+import com.rogersmarin.chessboard.Pipeline;
+import com.rogersmarin.chessboard.Ponderer;
+import com.rogersmarin.chessboard.PositionStore;
+import com.rogersmarin.chessboard.PositionSync;
+import com.rogersmarin.chessboard.Tablebase;
+import com.rogersmarin.chessboard.TablebaseGenerator;
 
 
 public class BoardAPITest {
@@ -46,6 +85,638 @@ public class BoardAPITest {
 		assertTrue(board.getPieceAt(to).getType().equals(PieceType.KING));
 	  }
 	 
+	 @Test public void testCopyIsIndependent() throws Exception {
+		ChessBoard original = new ChessBoard();
+		ChessBoard copy = original.copy();
+		Coordinate from = new Coordinate(1, 2);
+		Coordinate to = new Coordinate(1, 3);
+		assertNotSame(original.getPieceAt(from), copy.getPieceAt(from));
+		copy.movePiece(copy.getPieceAt(from), from, to);
+		assertNull(copy.getPieceAt(from));
+		assertNotNull(original.getPieceAt(from));
+		assertNull(original.getPieceAt(to));
+	 }
+	 
+	 @Test public void testCastlingMoveResult() throws Exception {
+		ChessBoard castleBoard = new ChessBoard();
+		castleBoard.removePieceAt(new Coordinate(6, 1));
+		castleBoard.removePieceAt(new Coordinate(7, 1));
+		MoveResult result = new MoveResult();
+		Piece king = castleBoard.getPieceAt(new Coordinate(5, 1));
+		king.checkBoard(new Coordinate(7, 1), castleBoard, result);
+		assertTrue(result.isValid());
+		assertTrue(result.isCastling());
+		assertNull(result.getCaptured());
+		assertEquals(MoveResult.ACTIVE, result.getStatus());
+		assertEquals(PieceType.ROOK, castleBoard.getPieceAt(new Coordinate(6, 1)).getType());
+	 }
+	 
+	 @Test public void testAttackedSquares() throws Exception {
+		ChessBoard attackBoard = new ChessBoard();
+		int e3 = new Coordinate(5, 3).getSquare();
+		int e4 = new Coordinate(5, 4).getSquare();
+		assertTrue(attackBoard.isSquareAttacked(e3, Colour.WHITE));
+		assertFalse(attackBoard.isSquareAttacked(e4, Colour.WHITE));
+		assertTrue((attackBoard.getAttackedSquares(Colour.BLACK) & (1L << e3)) != 0);
+		assertEquals(0L, attackBoard.getAttackedSquares(Colour.BLACK) & (1L << e4));
+		assertFalse(attackBoard.isCheck(Colour.WHITE));
+	 }
+	 
+	 @Test public void testLegalMovesAreMemoized() throws Exception {
+		ChessBoard moveBoard = new ChessBoard();
+		MoveList moves = moveBoard.getLegalMoves();
+		assertEquals(20, moves.size());
+		assertSame(moves, moveBoard.getLegalMoves(Colour.WHITE));
+		Piece knight = moveBoard.getPieceAt(new Coordinate(2, 1));
+		assertEquals(2, knight.getValidCoordinates(moveBoard, false).size());
+		knight.checkBoard(new Coordinate(3, 3), moveBoard);
+		assertEquals(Colour.BLACK, moveBoard.getTurn());
+		assertNotSame(moves, moveBoard.getLegalMoves(Colour.WHITE));
+	 }
+	 
+	 @Test public void testThreefoldRepetition() throws Exception {
+		ChessBoard repeatBoard = new ChessBoard();
+		String[] moves = {"g1f3", "g8f6", "f3g1", "f6g8", "g1f3", "g8f6", "f3g1", "f6g8"};
+		MoveResult result = new MoveResult();
+		for (String move : moves) {
+			assertFalse(repeatBoard.isThreefoldRepetition());
+			play(repeatBoard, move, result);
+		}
+		assertEquals(MoveResult.DRAW, result.getStatus());
+		assertEquals(8, repeatBoard.getHalfmoveClock());
+	 }
+	 
+	 @Test public void testTranspositionsHashEqual() throws Exception {
+		ChessBoard first = new ChessBoard();
+		ChessBoard second = new ChessBoard();
+		MoveResult result = new MoveResult();
+		play(first, "g1f3", result);
+		play(first, "g8f6", result);
+		play(first, "b1c3", result);
+		play(second, "b1c3", result);
+		play(second, "g8f6", result);
+		play(second, "g1f3", result);
+		assertEquals(first.getHash(), second.getHash());
+		assertFalse(first.getHash() == new ChessBoard().getHash());
+	 }
+	 
+	 @Test public void testMovePickerOrder() throws Exception {
+		ChessBoard pickBoard = new ChessBoard();
+		for (String move : new String[] {"e2e4", "d7d5", "d1g4", "g8f6"}) {
+			pickBoard.makeMove(pickBoard.parseMove(move));
+		}
+		MovePicker picker = new MovePicker(pickBoard);
+		assertEquals(pickBoard.parseMove("e4d5"), picker.next());
+		assertEquals(pickBoard.parseMove("g4c8"), picker.next());
+		assertEquals(pickBoard.parseMove("g4g7"), picker.next());
+		int count = 3, move;
+		while ((move = picker.next()) != Move.NONE) {
+			assertTrue(pickBoard.getLegalMoves().contains(move));
+			count++;
+		}
+		assertEquals(pickBoard.getLegalMoves().size(), count);
+	 }
+	 
+	 @Test public void testStaticExchange() throws Exception {
+		ChessBoard exchangeBoard = new ChessBoard();
+		exchangeBoard.makeMove(exchangeBoard.parseMove("e2e4"));
+		exchangeBoard.makeMove(exchangeBoard.parseMove("d7d5"));
+		assertEquals(0, exchangeBoard.staticExchange(exchangeBoard.parseMove("e4d5")));
+		assertEquals(-900, exchangeBoard.staticExchange(exchangeBoard.parseMove("d1g4")));
+		exchangeBoard.makeMove(exchangeBoard.parseMove("b1c3"));
+		exchangeBoard.makeMove(exchangeBoard.parseMove("a7a6"));
+		assertEquals(100, exchangeBoard.staticExchange(exchangeBoard.parseMove("e4d5")));
+	 }
+	 
+	 @Test public void testEnPassantAndGameState() throws Exception {
+		ChessBoard stateBoard = new ChessBoard();
+		assertEquals(GameState.ALL_CASTLING, stateBoard.getCastlingRights());
+		for (String move : new String[] {"e2e4", "a7a6", "e4e5", "d7d5"}) {
+			stateBoard.makeMove(stateBoard.parseMove(move));
+		}
+		assertEquals(new Coordinate(4, 6).getSquare(), stateBoard.getEnPassantSquare());
+		assertEquals(3, stateBoard.getFullmoveNumber());
+		long state = stateBoard.getState();
+		int capture = stateBoard.parseMove("e5d6");
+		assertTrue(Move.isEnPassant(capture));
+		stateBoard.makeMove(capture);
+		assertTrue(stateBoard.isPositionEmpty(new Coordinate(4, 5)));
+		stateBoard.unmakeMove();
+		assertEquals(PieceType.PAWN, stateBoard.getPieceAt(new Coordinate(4, 5)).getType());
+		assertEquals(state, stateBoard.getState());
+		stateBoard.makeMove(stateBoard.parseMove("e1e2"));
+		assertEquals(-1, stateBoard.getEnPassantSquare());
+		assertEquals(GameState.BLACK_KINGSIDE | GameState.BLACK_QUEENSIDE, stateBoard.getCastlingRights());
+	 }
+	 
+	 @Test public void testPositionStore() throws Exception {
+		ChessBoard storeBoard = new ChessBoard();
+		PositionStore store = new PositionStore();
+		store.add(storeBoard);
+		for (String move : new String[] {"e2e4", "d7d5", "e4d5", "d8d5"}) {
+			storeBoard.makeMove(storeBoard.parseMove(move));
+			store.add(storeBoard);
+		}
+		assertEquals(5, store.size());
+		assertEquals(storeBoard.getHash(), store.hashes()[4]);
+		ChessBoard restored = store.get(4);
+		assertEquals(storeBoard.getHash(), restored.getHash());
+		assertEquals(storeBoard.getLegalMoves().size(), restored.getLegalMoves().size());
+		assertEquals(3, store.count(new PositionStore.Filter() {
+			public boolean accept(PositionStore.View position) {
+				return position.countPieces() == 32;
+			}
+		}));
+	 }
+	 
+	 @Test public void testLongHashMap() throws Exception {
+		LongHashMap map = new LongHashMap();
+		for (long key = 0; key < 10000; key++) {
+			assertEquals(LongHashMap.NO_VALUE, map.put(key * 0x100000001L, key));
+		}
+		assertEquals(10000, map.size());
+		for (long key = 0; key < 10000; key++) {
+			assertEquals(key, map.get(key * 0x100000001L));
+		}
+		assertFalse(map.add(0L));
+		assertFalse(map.contains(-1L));
+		final LongHashMap striped = new LongHashMap(1000, 4);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (long key = 1; key <= 5000; key++) striped.add(key);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) thread.join();
+		assertEquals(5000, striped.size());
+	 }
+	 
+	 @Test public void testPseudoLegalMoves() throws Exception {
+		ChessBoard checkBoard = new ChessBoard();
+		for (String move : new String[] {"e2e4", "f7f6", "d1h5"}) {
+			checkBoard.makeMove(checkBoard.parseMove(move));
+		}
+		MoveList moves = new MoveList();
+		checkBoard.generatePseudoLegalMoves(Colour.BLACK, moves);
+		int legal = 0;
+		for (int i = 0; i < moves.size(); i++) {
+			if (checkBoard.isLegal(moves.get(i))) legal++;
+		}
+		assertTrue(moves.size() > legal);
+		assertEquals(checkBoard.getLegalMoves().size(), legal);
+
+		MoveList many = new MoveList();
+		for (int i = 0; i < 1000; i++) {
+			many.add(i);
+		}
+		assertEquals(1000, many.size());
+		assertEquals(999, many.get(999));
+	 }
+	 
+	 @Test public void testMoveEventStream() throws Exception {
+		ChessBoard liveBoard = new ChessBoard();
+		MoveEventStream stream = new MoveEventStream(4);
+		liveBoard.setEventStream(stream);
+		MoveEventStream.Subscriber spectator = stream.subscribe();
+		MoveResult result = new MoveResult();
+		play(liveBoard, "e2e4", result);
+		play(liveBoard, "d7d5", result);
+		play(liveBoard, "e4d5", result);
+		assertEquals("1 e2e4 status 0", MoveEvent.toString(spectator.poll()));
+		spectator.poll();
+		long capture = spectator.poll();
+		assertEquals(PieceType.PAWN, MoveEvent.getCaptured(capture));
+		assertEquals(MoveEvent.NONE, spectator.poll());
+		MoveEventStream.Subscriber slow = stream.subscribe();
+		for (String move : new String[] {"g8f6", "f1b5", "c7c6", "d5c6", "d8d7", "c6b7"}) {
+			play(liveBoard, move, result);
+		}
+		assertEquals(4, slow.drain(new long[8]));
+		assertEquals(2, slow.getMissed());
+		assertEquals(9, stream.getPublished());
+	 }
+	 
+	 @Test public void testGameJournal() throws Exception {
+		File file = File.createTempFile("journal", ".bin");
+		file.deleteOnExit();
+		GameJournal journal = new GameJournal(file, GameJournal.SyncPolicy.EVERY_COMMIT, 0, 16);
+		ChessBoard live = new ChessBoard();
+		journal.startGame(1);
+		journal.startGame(2);
+		for (String move : new String[] {"e2e4", "e7e5", "g1f3"}) {
+			int encoded = live.parseMove(move);
+			live.makeMove(encoded);
+			journal.append(1, encoded);
+			journal.append(2, encoded);
+		}
+		journal.awaitCommitted(journal.endGame(2));
+		journal.close();
+		RandomAccessFile torn = new RandomAccessFile(file, "rw");
+		torn.seek(torn.length());
+		torn.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+		torn.close();
+		Map<Long, ChessBoard> boards = GameJournal.recover(file, 2);
+		assertEquals(1, boards.size());
+		assertEquals(live.getHash(), boards.get(1L).getHash());
+		assertEquals(9 * 16, file.length());
+		GameJournal.compact(file);
+		assertEquals(4 * 16, file.length());
+		assertEquals(live.getHash(), GameJournal.recover(file, 1).get(1L).getHash());
+
+		// reopened after a crash without recovering, the torn tail is cut off before appending
+		torn = new RandomAccessFile(file, "rw");
+		torn.seek(torn.length());
+		torn.write(new byte[21]);
+		torn.close();
+		journal = new GameJournal(file, GameJournal.SyncPolicy.NONE, 0, 16);
+		int reply = live.parseMove("b8c6");
+		live.makeMove(reply);
+		journal.awaitCommitted(journal.append(1, reply));
+		journal.close();
+		assertEquals(5 * 16, file.length());
+		assertEquals(live.getHash(), GameJournal.recover(file, 1).get(1L).getHash());
+
+		// the last write before a pause is synced once the interval has passed, not left for the next write
+		journal = new GameJournal(file, GameJournal.SyncPolicy.PERIODIC, 20, 16);
+		journal.awaitCommitted(journal.endGame(1));
+		long deadline = System.currentTimeMillis() + 10000;
+		while (journal.getSyncs() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		Thread.sleep(100);
+		assertEquals(1, journal.getSyncs());
+		journal.close();
+		assertTrue(GameJournal.recover(file, 1).isEmpty());
+	 }
+	 
+	 @Test public void testInitialPositionCopies() throws Exception {
+		ChessBoard first = new ChessBoard();
+		long startHash = first.getHash();
+		play(first, "e2e4", new MoveResult());
+		ChessBoard second = new ChessBoard();
+		assertEquals(startHash, second.getHash());
+		assertEquals(20, second.getLegalMoves().size());
+		assertNotSame(first.getPieceAt(new Coordinate(1, 1)), second.getPieceAt(new Coordinate(1, 1)));
+		assertNull(second.getPieceAt(new Coordinate(5, 4)));
+		first.reset();
+		assertEquals(startHash, first.getHash());
+		assertEquals(Colour.WHITE, first.getTurn());
+		assertNotNull(first.getPieceAt(new Coordinate(5, 2)));
+		assertTrue(first.getAttackedCoordinates(Colour.WHITE).contains(new Coordinate(5, 6)));
+		// a caller emptying one board's list leaves every other board's alone
+		second.getLegalMoves().clear();
+		assertEquals(20, new ChessBoard().getLegalMoves().size());
+		assertEquals(20, first.getLegalMoves().size());
+		assertNotSame(first.getLegalMoves(), first.copy().getLegalMoves());
+	 }
+	 
+	 @Test public void testFromFen() throws Exception {
+		ChessBoard kiwipete = ChessBoard.fromFen("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1");
+		assertEquals(48, kiwipete.getLegalMoves().size());
+		ChessBoard played = new ChessBoard();
+		played.makeMove(played.parseMove("e2e4"));
+		assertEquals(played.getHash(), ChessBoard.fromFen("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1").getHash());
+		ChessBoard enPassant = ChessBoard.fromFen("4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 2");
+		assertEquals(43, enPassant.getEnPassantSquare());
+		assertTrue(enPassant.getLegalMoves().contains(enPassant.parseMove("e5d6")));
+		assertEquals("4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 2", enPassant.toFen());
+	 }
+	 
+	 @Test public void testFeatureExporter() throws Exception {
+		File games = File.createTempFile("games", ".txt");
+		File features = File.createTempFile("features", ".bin");
+		games.deleteOnExit();
+		features.deleteOnExit();
+		FileWriter writer = new FileWriter(games);
+		writer.write("f2f3 e7e5 g2g4 d8h4\ne2e4 1/2-1/2\ne2e5\n");
+		writer.close();
+		FeatureExporter exporter = new FeatureExporter(8, 2);
+		exporter.export(games, features, null);
+		assertEquals(2, exporter.getGames());
+		assertEquals(7, exporter.getPositions());
+		assertEquals(1, exporter.getErrors());
+		FeatureExporter.Reader reader = new FeatureExporter.Reader(features);
+		int rows = 0;
+		for (int chunk = 0; chunk < reader.getChunks(); chunk++) {
+			for (int row = 0; row < reader.getRows(chunk); row++) {
+				rows++;
+				if (reader.getGame(chunk, row) == 1 && reader.getPly(chunk, row) == 0) {
+					assertEquals(0xff00L, reader.getPlane(chunk, row, PieceType.PAWN.ordinal()));
+					assertEquals(0xff0000L, reader.getAttacks(chunk, row, Colour.WHITE) & 0xffffffffffff0000L);
+					assertEquals(-1, reader.getResult(chunk, row));
+				} else if (reader.getGame(chunk, row) == 2) {
+					assertEquals(0, reader.getResult(chunk, row));
+					assertEquals(reader.getPly(chunk, row) == 0 ? Colour.WHITE : Colour.BLACK, reader.getTurn(chunk, row));
+				}
+			}
+		}
+		assertEquals(7, rows);
+
+		long length = features.length();
+		File missing = new File(games.getPath() + ".missing");
+		try {
+			exporter.export(missing, features, null);
+			fail("exported a missing file");
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+		assertEquals(length, features.length());
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			assertFalse(thread.getName(), thread.getName().startsWith("feature-"));
+		}
+	 }
+	 
+	 @Test public void testMctsFindsMate() throws Exception {
+		ChessBoard backRank = ChessBoard.fromFen("6k1/5ppp/8/8/8/8/8/R5K1 w - - 0 1");
+		long hash = backRank.getHash();
+		MctsEngine engine = new MctsEngine(2000, 2, 40, true, 1);
+		assertEquals("a1a8", Move.toString(engine.chooseMove(backRank)));
+		assertTrue(engine.getStats().startsWith("2000 playouts"));
+		assertEquals(hash, backRank.getHash());
+	 }
+	 
+	 @Test public void testMoveGeneratorFuzzer() throws Exception {
+		for (MoveGeneratorFuzzer.Reference reference : MoveGeneratorFuzzer.Reference.values()) {
+			MoveGeneratorFuzzer fuzzer = new MoveGeneratorFuzzer(reference, 2, 200);
+			assertEquals(Collections.<String>emptyList(), fuzzer.run(10, 60000, 42));
+			assertEquals(10, fuzzer.getGames());
+		}
+	 }
+	 
+	 @Test public void testPipeline() throws Exception {
+		final List<Integer> out = Collections.synchronizedList(new ArrayList<Integer>());
+		Pipeline<Object> pipeline = Pipeline.from("numbers", Arrays.asList(1, 2, 3, 4, 5, 6).iterator(), 2)
+			.then("square", 3, new Pipeline.Stage<Integer, Integer>() {
+				public Integer process(Integer item) {
+					if (item == 4) throw new IllegalArgumentException("failed on purpose");
+					return (item % 2 == 0) ? null : item * item;
+				}
+			})
+			.then("collect", 1, new Pipeline.Stage<Integer, Object>() {
+				public Object process(Integer item) {
+					out.add(item);
+					return null;
+				}
+			});
+		pipeline.run(null, 1000);
+		Collections.sort(out);
+		assertEquals(Arrays.asList(1, 9, 25), out);
+		assertEquals(1, pipeline.getFailed("square"));
+		assertEquals("failed on purpose", pipeline.getFirstFailure("square").getMessage());
+		assertEquals(0, pipeline.getFailed("collect"));
+		assertNull(pipeline.getFirstFailure("numbers"));
+
+		StringWriter annotations = new StringWriter();
+		new GameAnalysis(2, 1, 1, 2, 2, 4).run(new BufferedReader(new StringReader("# fool's mate\nf2f3 e7e5 g2g4 d8h4 0-1\n")),
+				new PrintWriter(annotations), null, 1000);
+		String[] lines = annotations.toString().split("\n");
+		assertEquals(5, lines.length);
+		assertTrue(lines[3], lines[3].startsWith("2\t3\tg2g4\t") && lines[3].endsWith("??"));
+	 }
+	 
+	 @Test public void testUci() throws Exception {
+		PipedInputStream commandsIn = new PipedInputStream();
+		PrintStream commands = new PrintStream(new PipedOutputStream(commandsIn), true);
+		PipedInputStream repliesIn = new PipedInputStream(1 << 16);
+		BufferedReader replies = new BufferedReader(new InputStreamReader(repliesIn));
+		final Uci uci = new Uci(commandsIn, new PipedOutputStream(repliesIn));
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					uci.run();
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		thread.start();
+		commands.println("uci");
+		assertEquals("uciok", await(replies, "uciok"));
+
+		// an invalid position is refused rather than searching the board left from before
+		commands.println("position startpos moves e2e4");
+		commands.println("position fen not a position");
+		commands.println("go depth 2");
+		assertEquals("bestmove 0000", await(replies, "bestmove"));
+
+		commands.println("position fen 6k1/5ppp/8/8/8/8/8/R5K1 w - - 0 1");
+		commands.println("go depth 3");
+		assertEquals("bestmove a1a8", await(replies, "bestmove"));
+
+		// moves are added to the same base, then some taken back and others played
+		commands.println("position startpos moves e2e4 e7e5 g1f3 b8c6");
+		commands.println("position startpos moves e2e4 e7e5 g1f3 b8c6 f1c4");
+		commands.println("position startpos moves e2e4 c7c5");
+		commands.println("go depth 2");
+		ChessBoard expected = new ChessBoard();
+		expected.makeMove(expected.parseMove("e2e4"));
+		expected.makeMove(expected.parseMove("c7c5"));
+		String best = await(replies, "bestmove");
+		assertTrue(best, expected.getLegalMoves().contains(expected.parseMove(best.substring(9))));
+
+		// a search without a limit only answers once stopped
+		commands.println("go infinite");
+		commands.println("stop");
+		best = await(replies, "bestmove");
+		assertTrue(best, expected.getLegalMoves().contains(expected.parseMove(best.substring(9))));
+		commands.println("quit");
+		thread.join();
+		assertEquals(expected.getHash(), uci.getBoard().getHash());
+		assertEquals(expected.toFen(), uci.getBoard().toFen());
+	 }
+	 
+	 @Test public void testPonderer() throws Exception {
+		ChessBoard board = new ChessBoard();
+		board.makeMove(board.parseMove("e2e4"));
+		Ponderer ponderer = new Ponderer(3);
+		ponderer.start(board);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (ponderer.getPrediction() == Move.NONE && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		int prediction = ponderer.getPrediction();
+		assertTrue(board.getLegalMoves().contains(prediction));
+		board.makeMove(prediction);
+		int reply = ponderer.respond(prediction, board, 10000);
+		assertTrue(board.getLegalMoves().contains(reply));
+		assertEquals(3, ponderer.getDepth());
+		assertEquals(1, ponderer.getHits());
+
+		board.makeMove(reply);
+		ponderer.start(board);
+		int other = board.getLegalMoves().get(0);
+		if (other == ponderer.getPrediction()) other = board.getLegalMoves().get(1);
+		board.makeMove(other);
+		reply = ponderer.respond(other, board, 10000);
+		assertTrue(board.getLegalMoves().contains(reply));
+		assertEquals(1, ponderer.getMisses());
+		ponderer.cancel();
+
+		final List<Integer> depths = new ArrayList<Integer>();
+		AlphaBetaEngine.DepthListener listener = new AlphaBetaEngine.DepthListener() {
+			public void depthDone(int depth, int move, int score, long nodes) {
+				depths.add(depth);
+			}
+		};
+		AlphaBetaEngine deepening = new AlphaBetaEngine(1);
+		assertEquals("a1a8", Move.toString(deepening.deepen(ChessBoard.fromFen("6k1/5ppp/8/8/8/8/8/R5K1 w - - 0 1"), 5, listener)));
+		assertEquals(AlphaBetaEngine.MATE - 1, deepening.getScore());
+		assertEquals(Arrays.asList(1), depths);
+		depths.clear();
+		ChessBoard middlegame = ChessBoard.fromFen("r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3");
+		deepening = new AlphaBetaEngine(1);
+		deepening.deepen(middlegame, 3, listener);
+		AlphaBetaEngine fixed = new AlphaBetaEngine(3);
+		fixed.chooseMove(middlegame);
+		assertEquals(fixed.getScore(), deepening.getScore());
+		assertEquals(Arrays.asList(1, 2, 3), depths);
+	 }
+	 
+	 @Test public void testPositionSync() throws Exception {
+		ChessBoard board = new ChessBoard();
+		PositionSync sync = new PositionSync(board);
+		PositionSync.Replica replica = new PositionSync.Replica();
+		assertFalse(replica.apply(sync.update(board)));
+		byte[] full = sync.encode();
+		assertEquals(29, full.length);
+		assertEquals(board.getHash(), PositionSync.decode(full).getHash());
+		assertTrue(replica.apply(full));
+		assertEquals(1, replica.getVersion());
+		byte[] lost = null;
+		for (String move : new String[] {"e2e4", "d7d5", "e4d5", "g8f6", "f1b5", "c7c6", "g1f3", "c6b5", "e1g1", "e7e5", "d5e6"}) {
+			board.makeMove(board.parseMove(move));
+			byte[] change = sync.update(board);
+			assertTrue(change.length <= 14);
+			if (move.equals("e1g1")) {
+				lost = change;
+				continue;
+			}
+			// a change after a lost one is refused until the full position is sent
+			if (!replica.apply(change)) assertTrue(replica.apply(sync.encode()));
+			assertEquals(board.toFen(), replica.getBoard().toFen());
+			assertEquals(board.getHash(), replica.getBoard().getHash());
+			assertEquals(sync.getVersion(), replica.getVersion());
+		}
+		assertFalse(replica.apply(lost));
+		assertEquals(board.getLegalMoves().size(), replica.getBoard().getLegalMoves().size());
+	 }
+	 
+	 @Test public void testTournament() throws Exception {
+		// the engines are seeded by game number so the results are the same on every run, the second
+		// opening is not legal so the games played from it are counted as errors
+		Tournament tournament = new Tournament("random", "random", Arrays.asList("f2f3 e7e5", "e2e5"), 400);
+		ByteArrayOutputStream report = new ByteArrayOutputStream();
+		tournament.run(8, 2, 4, new PrintStream(report, true));
+		assertEquals(0, tournament.getWins());
+		assertEquals(2, tournament.getDraws());
+		assertEquals(2, tournament.getLosses());
+		assertEquals(4, tournament.getErrors());
+		assertEquals("invalid opening move e2e5", tournament.getFirstError().getMessage());
+		String[] lines = report.toString().trim().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[1], lines[1].startsWith("4 games  +0 =2 -2") && lines[1].contains("4 errors")
+				&& lines[1].endsWith("invalid opening move e2e5"));
+	 }
+	 
+	 @Test public void testBatchRunner() throws Exception {
+		StringWriter report = new StringWriter();
+		new BatchRunner(2).run(new BufferedReader(new StringReader("game one\nf2f3\ne7e5\ng2g4\nd8h4\n"
+				+ "# the second game stops at its illegal move\ngame two\ne2e4\ne2e5\nd7d5\n")), new PrintWriter(report));
+		String[] lines = report.toString().split("\r?\n");
+		assertEquals(4, lines.length);
+		assertEquals("game\tmoves\tresult\tmicros\terror", lines[0]);
+		assertTrue(lines[1], lines[1].matches("one\t4\tblack wins\t\\d+\t"));
+		assertTrue(lines[2], lines[2].matches("two\t1\tactive\t\\d+\te2e5 is not a valid move"));
+		assertTrue(lines[3], lines[3].startsWith("# 2 games, 5 moves in "));
+	 }
+	 
+	 @Test public void testTablebase() throws Exception {
+		File directory = File.createTempFile("tables", "");
+		directory.delete();
+		directory.mkdir();
+		try {
+			new TablebaseGenerator(directory, 2).generate("KRK", null);
+			Tablebase tables = new Tablebase(directory);
+			ChessBoard mateInOne = ChessBoard.fromFen("7k/8/6K1/8/8/8/8/R7 w - - 0 1");
+			assertEquals(Tablebase.WIN, tables.probeWDL(mateInOne));
+			assertEquals(1, tables.probeDTM(mateInOne));
+			ChessBoard mated = ChessBoard.fromFen("R6k/8/6K1/8/8/8/8/8 b - - 0 1");
+			assertEquals(Tablebase.LOSS, tables.probeWDL(mated));
+			assertEquals(0, tables.probeDTM(mated));
+			// the bare king takes the undefended rook
+			ChessBoard rookFalls = ChessBoard.fromFen("8/8/8/4k3/4R3/8/8/K7 b - - 0 1");
+			assertEquals(Tablebase.DRAW, tables.probeWDL(rookFalls));
+			assertEquals(0, tables.probeDTM(rookFalls));
+			assertEquals(Tablebase.NOT_FOUND, tables.probeWDL(new ChessBoard()));
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	 }
+	 
+	 @Test public void testPuzzleFinder() throws Exception {
+		File games = File.createTempFile("games", ".txt");
+		File output = File.createTempFile("puzzles", ".txt");
+		games.deleteOnExit();
+		output.deleteOnExit();
+		output.delete();
+		// the first game ends one move before a unique mate, the second in a position with two mates in one
+		String twoMates = "b1c3 d7d5 b2b3 c8g4 h2h4 f7f5 c3d5 h7h6 d5f6 e8f7 c2c3 f7e6 a2a4 e6f6 a4a5 f6e5 h1h2 e7e6 "
+				+ "a5a6 g4h3 g2g4 d8e8 f2f4 e5e4 d2d4 b8a6 d4d5 f8d6";
+		FileWriter writer = new FileWriter(games);
+		writer.write("f2f3 e7e5 g2g4\n" + twoMates + "\n");
+		writer.close();
+		PuzzleFinder finder = new PuzzleFinder(1, 2);
+		finder.run(games, output);
+		assertEquals(2, finder.getGames());
+		assertEquals(0, finder.getFailed());
+		String found = read(output);
+		assertTrue(found, found.contains("puzzle\t1\t3\tmate in 1\td8h4\tf2f3 e7e5 g2g4\n"));
+		assertFalse(found, found.contains("puzzle\t2\t28\t"));
+		assertTrue(found.contains("done\t1\n") && found.contains("done\t2\n"));
+
+		// a run over the same output only searches the game added since
+		writer = new FileWriter(games, true);
+		writer.write("e2e4 e7e5 d1h5 b8c6 f1c4 g8f6\n");
+		writer.close();
+		finder.run(games, output);
+		assertEquals(1, finder.getGames());
+		assertEquals(2, finder.getSkipped());
+		found = read(output);
+		assertTrue(found, found.contains("puzzle\t3\t6\tmate in 1\th5f7\t"));
+		assertEquals(found.indexOf("done\t1\n"), found.lastIndexOf("done\t1\n"));
+	 }
+	 
+	 private static String await(BufferedReader replies, String prefix) throws Exception {
+		String line;
+		while ((line = replies.readLine()) != null) {
+			if (line.startsWith(prefix)) return line;
+		}
+		return null;
+	 }
+	 
+	 private static String read(File file) throws Exception {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		StringBuilder text = new StringBuilder();
+		String line;
+		while ((line = in.readLine()) != null) {
+			text.append(line).append('\n');
+		}
+		in.close();
+		return text.toString();
+	 }
+	 
+	 private static void play(ChessBoard board, String move, MoveResult result) throws Exception {
+		Coordinate from = new Coordinate(move.charAt(0) - 'a' + 1, move.charAt(1) - '0');
+		Coordinate to = new Coordinate(move.charAt(2) - 'a' + 1, move.charAt(3) - '0');
+		assertTrue(board.getPieceAt(from).checkBoard(to, board, result).isValid());
+	 }
+	 
 	 
 	 
 
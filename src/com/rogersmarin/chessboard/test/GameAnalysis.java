@@ -0,0 +1,274 @@
+package com.rogersmarin.chessboard.test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.rogersmarin.chessboard.AlphaBetaEngine;
+import com.rogersmarin.chessboard.ChessBoard;
+import com.rogersmarin.chessboard.Move;
+import com.rogersmarin.chessboard.Pipeline;
+import com.rogersmarin.chessboard.PieceType;
+
+/**
+ * Annotates recorded games with the AlphaBetaEngine. The games go through a {@link Pipeline}:
+ * lines are read, parsed into moves, replayed on a board which is copied at the selected positions,
+ * each position is searched for the best move and the move played, and the annotations are written.
+ * Every stage but reading and writing can have several threads.
+ *
+ * The input holds one game per line as coordinate moves e.g e2e4 e7e5 g1f3, blank lines, lines
+ * starting with # and results are ignored. Each game is named by its line number. The output has a line
+ * per position searched with the move played, the best move, both scores for the side to move and
+ * ? when the move played loses a pawn or more, ?? when it loses a minor piece or more. Games are
+ * written as they finish so they are not in input order.
+ * @author roger
+ *
+ */
+public class GameAnalysis {
+
+	private final int depth;
+	private final int every;
+	private final int parseThreads;
+	private final int replayThreads;
+	private final int analyzeThreads;
+	private final int queueCapacity;
+
+	/**
+	 * @param depth the plies searched from each position
+	 * @param every the plies between positions searched, 1 for every position
+	 * @param parseThreads
+	 * @param replayThreads
+	 * @param analyzeThreads
+	 * @param queueCapacity the games waiting in front of each stage
+	 */
+	public GameAnalysis(int depth, int every, int parseThreads, int replayThreads, int analyzeThreads, int queueCapacity) {
+		this.depth = Math.max(1, depth);
+		this.every = Math.max(1, every);
+		this.parseThreads = parseThreads;
+		this.replayThreads = replayThreads;
+		this.analyzeThreads = analyzeThreads;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Annotates every game in the input
+	 * @param in
+	 * @param out
+	 * @param report where the stage statistics are printed, or null
+	 * @param reportMillis
+	 * @throws InterruptedException
+	 */
+	public void run(BufferedReader in, final PrintWriter out, PrintStream report, long reportMillis) throws InterruptedException {
+		out.println("game\tply\tplayed\tbest\tplayed score\tbest score\tmark");
+		Pipeline.from("read", new LineIterator(in), queueCapacity)
+			.then("parse", parseThreads, new Pipeline.Stage<Line, Game>() {
+				public Game process(Line line) {
+					return parse(line);
+				}
+			})
+			.then("replay", replayThreads, new Pipeline.Stage<Game, Game>() {
+				public Game process(Game game) throws Exception {
+					return replay(game);
+				}
+			})
+			.then("analyze", analyzeThreads, new Pipeline.Stage<Game, Game>() {
+				public Game process(Game game) {
+					return analyze(game);
+				}
+			})
+			.then("write", 1, new Pipeline.Stage<Game, Object>() {
+				public Object process(Game game) {
+					for (String annotation : game.annotations) {
+						out.println(annotation);
+					}
+					return null;
+				}
+			})
+			.run(report, reportMillis);
+		out.flush();
+	}
+
+	/**
+	 * Returns the game's moves or null for a line without a game
+	 */
+	Game parse(Line line) {
+		String text = line.text.trim();
+		if (text.length() == 0 || text.startsWith("#")) return null;
+		List<String> moves = new ArrayList<String>();
+		for (String token : text.split("\\s+")) {
+			if (token.equals("1-0") || token.equals("0-1") || token.equals("1/2-1/2") || token.equals("*")) continue;
+			moves.add(token);
+		}
+		return new Game(line.number, moves.toArray(new String[moves.size()]));
+	}
+
+	/**
+	 * Plays the game's moves and keeps a copy of the board before each selected move
+	 * @throws IllegalArgumentException if a move is not legal
+	 */
+	Game replay(Game game) throws Exception {
+		ChessBoard board = new ChessBoard();
+		for (int ply = 0; ply < game.moves.length; ply++) {
+			int move = board.parseMove(game.moves[ply]);
+			if (move == Move.NONE) {
+				throw new IllegalArgumentException("game " + game.number + " ply " + (ply + 1) + ": " + game.moves[ply] + " is not legal");
+			}
+			if (ply % every == 0) {
+				game.plies.add(ply);
+				game.positions.add(board.copy());
+				game.played.add(move);
+			}
+			board.makeMove(move);
+		}
+		return game;
+	}
+
+	/**
+	 * Searches the best move and the move played in each selected position
+	 */
+	Game analyze(Game game) {
+		for (int i = 0; i < game.positions.size(); i++) {
+			ChessBoard board = game.positions.get(i);
+			int played = game.played.get(i);
+			AlphaBetaEngine engine = new AlphaBetaEngine(depth);
+			int best = engine.chooseMove(board);
+			int bestScore = engine.getScore();
+			int playedScore = bestScore;
+			if (played != best) {
+				board.makeMove(played);
+				playedScore = -score(board, depth - 1);
+				board.unmakeMove();
+			}
+			int loss = bestScore - playedScore;
+			String mark = (loss >= PieceType.KNIGHT.getValue()) ? "??" : (loss >= PieceType.PAWN.getValue()) ? "?" : "";
+			game.annotations.add(game.number + "\t" + (game.plies.get(i) + 1) + "\t" + Move.toString(played) + "\t"
+					+ Move.toString(best) + "\t" + playedScore + "\t" + bestScore + "\t" + mark);
+		}
+		// the copies are no longer needed, so the write queue holds only text
+		game.positions.clear();
+		return game;
+	}
+
+	/**
+	 * Returns the score of the position for the side to move searched to the given depth
+	 */
+	private static int score(ChessBoard board, int depth) {
+		if (board.getLegalMoves().isEmpty()) {
+			return board.isCheck(board.getTurn()) ? -AlphaBetaEngine.MATE : 0;
+		}
+		if (depth == 0) return AlphaBetaEngine.evaluate(board);
+		AlphaBetaEngine engine = new AlphaBetaEngine(depth);
+		engine.chooseMove(board);
+		return engine.getScore();
+	}
+
+	/**
+	 * Class that represents an input line and its number
+	 */
+	static final class Line {
+		final int number;
+		final String text;
+
+		Line(int number, String text) {
+			this.number = number;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Class that represents a game as it goes through the stages
+	 */
+	static final class Game {
+		final int number;
+		final String[] moves;
+		final List<Integer> plies = new ArrayList<Integer>();
+		final List<ChessBoard> positions = new ArrayList<ChessBoard>();
+		final List<Integer> played = new ArrayList<Integer>();
+		final List<String> annotations = new ArrayList<String>();
+
+		Game(int number, String[] moves) {
+			this.number = number;
+			this.moves = moves;
+		}
+	}
+
+	/**
+	 * Iterator over the numbered lines of a reader
+	 */
+	private static final class LineIterator implements Iterator<Line> {
+		private final BufferedReader in;
+		private String next;
+		private int number;
+
+		LineIterator(BufferedReader in) {
+			this.in = in;
+		}
+
+		public boolean hasNext() {
+			if (next == null) {
+				try {
+					next = in.readLine();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return next != null;
+		}
+
+		public Line next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			Line line = new Line(++number, next);
+			next = null;
+			return line;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Annotates the games in a file
+	 * @param args the games and the output followed by optional -depth n, -every n, -parse n, -replay n,
+	 * -analyze n for the threads of those stages, -queue n and -report ms
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("GameAnalysis <games> <output> [-depth <n>] [-every <n>] [-parse <threads>] [-replay <threads>] "
+					+ "[-analyze <threads>] [-queue <n>] [-report <ms>]");
+			return;
+		}
+		int depth = 3;
+		int every = 1;
+		int parse = 1;
+		int replay = 1;
+		int analyze = Runtime.getRuntime().availableProcessors();
+		int queue = 64;
+		long reportMillis = 5000;
+		for (int i = 2; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-depth")) depth = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-every")) every = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-parse")) parse = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-replay")) replay = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-analyze")) analyze = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-queue")) queue = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-report")) reportMillis = Long.parseLong(args[i + 1]);
+		}
+		BufferedReader in = new BufferedReader(new FileReader(args[0]));
+		PrintWriter out = new PrintWriter(new FileWriter(args[1]));
+		try {
+			new GameAnalysis(depth, every, parse, replay, analyze, queue).run(in, out, System.out, reportMillis);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.rogersmarin.chessboard.test;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rogersmarin.chessboard.ChessBoard;
+import com.rogersmarin.chessboard.GameJournal;
+import com.rogersmarin.chessboard.Move;
+import com.rogersmarin.chessboard.RandomEngine;
+
+/**
+ * Measures the game journal. Random games are played on many threads, each move is appended and
+ * waited for as a game server would before answering, then the journal is recovered and the
+ * rebuilt boards are compared with the games left unfinished. Every other game is left unfinished
+ * so the recovery has live boards to rebuild.
+ * @author roger
+ *
+ */
+public class JournalBenchmark {
+
+	/**
+	 * Runs the benchmark from the command line
+	 * @param args the journal file, then optional -games n, -threads n, -plies n, -sync none|every_commit|periodic,
+	 * -interval ms, -maxbatch n and -compact
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("usage: JournalBenchmark <journal> [-games n] [-threads n] [-plies n] [-sync policy] [-interval ms] [-maxbatch n] [-compact]");
+			return;
+		}
+		File file = new File(args[0]);
+		int games = 1000;
+		int threads = Runtime.getRuntime().availableProcessors() * 4;
+		int maxPlies = 80;
+		GameJournal.SyncPolicy policy = GameJournal.SyncPolicy.EVERY_COMMIT;
+		long interval = 10;
+		int maxBatch = 4096;
+		boolean compact = false;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-compact")) compact = true;
+			else if (i + 1 < args.length) {
+				if (args[i].equals("-games")) games = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-threads")) threads = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-plies")) maxPlies = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-sync")) policy = GameJournal.SyncPolicy.valueOf(args[++i].toUpperCase());
+				else if (args[i].equals("-interval")) interval = Long.parseLong(args[++i]);
+				else if (args[i].equals("-maxbatch")) maxBatch = Integer.parseInt(args[++i]);
+			}
+		}
+		file.delete();
+
+		final GameJournal journal = new GameJournal(file, policy, interval, maxBatch);
+		final Map<Long, Long> unfinished = new ConcurrentHashMap<Long, Long>();
+		final AtomicLong moves = new AtomicLong();
+		final int gamePlies = maxPlies;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for (int g = 0; g < games; g++) {
+			final long gameId = g;
+			pool.execute(new Runnable() {
+				public void run() {
+					try {
+						play(journal, gameId, gamePlies, unfinished, moves);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		journal.close();
+		long writeNanos = Math.max(1, System.nanoTime() - start);
+		System.out.println(moves.get() + " moves journalled in " + writeNanos / 1000000 + "ms ("
+				+ moves.get() * 1000000000L / writeNanos + " moves/s, sync " + policy + ")");
+		System.out.println(journal.getStats());
+		System.out.println("journal size " + file.length() / 1024 + "KB");
+
+		if (compact) {
+			start = System.nanoTime();
+			GameJournal.compact(file);
+			System.out.println("compacted to " + file.length() / 1024 + "KB in " + (System.nanoTime() - start) / 1000000 + "ms");
+		}
+
+		start = System.nanoTime();
+		Map<Long, ChessBoard> boards = GameJournal.recover(file, Runtime.getRuntime().availableProcessors());
+		long recoverMillis = (System.nanoTime() - start) / 1000000;
+		int mismatches = 0;
+		for (Map.Entry<Long, Long> game : unfinished.entrySet()) {
+			ChessBoard board = boards.get(game.getKey());
+			if (board == null || board.getHash() != game.getValue()) mismatches++;
+		}
+		if (boards.size() != unfinished.size()) mismatches++;
+		System.out.println(boards.size() + " live boards recovered in " + recoverMillis + "ms, "
+				+ (mismatches == 0 ? "all match" : mismatches + " MISMATCHED"));
+		if (mismatches != 0) System.exit(1);
+	}
+
+	/**
+	 * Plays one random game, journalling each move and waiting for it before the next as a server would
+	 */
+	private static void play(GameJournal journal, long gameId, int plies, Map<Long, Long> unfinished, AtomicLong moves) throws Exception {
+		ChessBoard board = new ChessBoard();
+		RandomEngine engine = new RandomEngine(gameId);
+		journal.awaitCommitted(journal.startGame(gameId));
+		for (int ply = 0; ply < plies; ply++) {
+			int move = engine.chooseMove(board);
+			if (move == Move.NONE) break;
+			board.makeMove(move);
+			journal.awaitCommitted(journal.append(gameId, move));
+			moves.incrementAndGet();
+		}
+		if (gameId % 2 == 0) {
+			journal.awaitCommitted(journal.endGame(gameId));
+		} else {
+			unfinished.put(gameId, board.getHash());
+		}
+	}
+}
@@ -4,11 +4,13 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.rogersmarin.chessboard.ChessBoard;
 import com.rogersmarin.chessboard.Colour;
 import com.rogersmarin.chessboard.Coordinate;
+import com.rogersmarin.chessboard.MoveResult;
 import com.rogersmarin.chessboard.Piece;
 
 /**
@@ -21,13 +23,14 @@ public class Main {
 	private static Colour player = Colour.WHITE;
 	private static ChessBoard board;
 	private static boolean checkmate = false;
+	private static MoveResult result = new MoveResult();
 	private static BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
 	
 	public Main() {
 		printBoard();
 	}
 	
-	private static Coordinate parseCoordinate(String alpha, int row) {
+	static Coordinate parseCoordinate(String alpha, int row) {
 		int column = getBoardNumbers(alpha);
 		Coordinate square = new Coordinate(column, row);
 		return square;
@@ -59,7 +62,7 @@ public class Main {
 		return false;
 	}
 	
-	private static boolean validMoveString(String move) {
+	static boolean validMoveString(String move) {
 		try {
 			String[] moves = getMoves(move);
 			if (moves.length == 2) {
@@ -101,7 +104,7 @@ public class Main {
 		return "";
 	}
 	
-	private static String[] getMoves(String move) {
+	static String[] getMoves(String move) {
 		String[] moves = new String[2];
 		moves[0] = move.replaceAll(" ", "").substring(0,2);
 		moves[1] = move.replaceAll(" ", "").substring(2);
@@ -118,13 +121,19 @@ public class Main {
 			}
 			if ((movePiece = board.getPieceAt(intMoves.get(0))) != null) {
 				if (movePiece.getColour().equals(player)) {
-					List<Boolean> moveChecks = movePiece.checkBoard(intMoves.get(1), board);
-					if (moveChecks.get(0)) {
+					MoveResult moveResult = movePiece.checkBoard(intMoves.get(1), board, result);
+					if (moveResult.isValid()) {
 						System.out.print("\n" + player + " ---> " + movePiece.getType() + " " + moves[0] + " " + moves[1]);
-						if (moveChecks.get(2)) {
+						if (moveResult.isCheckmate()) {
 							checkmate = true;
 							System.out.println(" Checkmate\n\n" + player + " WINS!");
-						} else if (moveChecks.get(1)) {
+						} else if (moveResult.getStatus() == MoveResult.STALEMATE) {
+							checkmate = true;
+							System.out.println(" Stalemate\n\nDRAW!");
+						} else if (moveResult.getStatus() == MoveResult.DRAW) {
+							checkmate = true;
+							System.out.println(" Repetition or fifty moves\n\nDRAW!");
+						} else if (moveResult.isCheck()) {
 							System.out.println("  Check\n");
 						}
 					} else {
@@ -174,11 +183,7 @@ public class Main {
 	}
 	
 	private static void setPlayerTurn () {
-		if (player.equals(Colour.WHITE)) {
-			player = Colour.BLACK;
-		} else {
-			player = Colour.WHITE;
-		}
+		player = board.getTurn();
 	}
 	
 	private static void reset() throws Exception{
@@ -186,9 +191,18 @@ public class Main {
 		player = Colour.WHITE;
 	}
 	/**
-	 * @param args
+	 * @param args -batch followed by the BatchRunner arguments replays games without rendering,
+	 * -uci speaks the Universal Chess Interface on standard input and output
 	 */
 	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("-batch")) {
+			BatchRunner.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("-uci")) {
+			Uci.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		init();
 		while (!checkmate) {
 			try {
@@ -0,0 +1,303 @@
+package com.rogersmarin.chessboard.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.rogersmarin.chessboard.ChessBoard;
+import com.rogersmarin.chessboard.Move;
+import com.rogersmarin.chessboard.MoveList;
+
+/**
+ * Finds mate puzzles in recorded games. Every position of every game is searched for a forced mate
+ * in at most a given number of moves, and kept as a puzzle when exactly one first move forces the
+ * shortest mate. Each game is a fork/join task that replays the moves and forks a task per position
+ * with its own copy of the board, so idle threads steal positions from long games.
+ *
+ * The input holds one game per line as coordinate moves e.g e2e4 e7e5 g1f3, blank lines and lines
+ * starting with # are ignored. Each game is named by its line number. The output is appended to as
+ * games finish, a "puzzle" line per puzzle then a "done" line per game, so a run that is stopped
+ * can be started again with the same output file and skips the games already done. The done line
+ * of a game with an invalid move or one whose search failed ends with the reason.
+ * @author roger
+ *
+ */
+public class PuzzleFinder {
+
+	private final int maxMoves;
+	private final int threads;
+	private final AtomicInteger games = new AtomicInteger();
+	private final AtomicInteger positions = new AtomicInteger();
+	private final AtomicInteger puzzles = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private int skipped;
+	private PrintWriter out;
+
+	/**
+	 * @param maxMoves the longest mate searched for, in moves of the side giving mate
+	 * @param threads
+	 */
+	public PuzzleFinder(int maxMoves, int threads) {
+		this.maxMoves = maxMoves;
+		this.threads = threads;
+	}
+
+	/**
+	 * Searches every game in the input not already marked done in the output
+	 * @param input
+	 * @param output
+	 * @throws Exception
+	 */
+	public void run(File input, File output) throws Exception {
+		Set<Integer> done = readDone(output);
+		games.set(0);
+		positions.set(0);
+		puzzles.set(0);
+		skipped = 0;
+		failed.set(0);
+		BufferedReader in = new BufferedReader(new FileReader(input));
+		try {
+			out = new PrintWriter(new FileWriter(output, true));
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			Semaphore inFlight = new Semaphore(threads * 4);
+			try {
+				String line;
+				int number = 0;
+				while ((line = in.readLine()) != null) {
+					number++;
+					line = line.trim();
+					if (line.length() == 0 || line.startsWith("#")) continue;
+					if (done.contains(number)) {
+						skipped++;
+						continue;
+					}
+					inFlight.acquire();
+					pool.execute(new GameTask(number, line, inFlight));
+				}
+			} finally {
+				pool.shutdown();
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the number of games searched by the last run
+	 * @return
+	 */
+	public int getGames() {
+		return games.get();
+	}
+
+	public int getPositions() {
+		return positions.get();
+	}
+
+	public int getPuzzles() {
+		return puzzles.get();
+	}
+
+	/**
+	 * Returns the number of games the last run could not search, each has a done line with the error
+	 * @return
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Returns the number of games the last run skipped as already done in the output
+	 * @return
+	 */
+	public int getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * Class that represents the search of one game, it replays the moves and searches every position
+	 * in a subtask, then writes the game's puzzles and its done line together
+	 */
+	private class GameTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int game;
+		private final String line;
+		private final Semaphore inFlight;
+
+		GameTask(int game, String line, Semaphore inFlight) {
+			this.game = game;
+			this.line = line;
+			this.inFlight = inFlight;
+		}
+
+		protected void compute() {
+			try {
+				ChessBoard board = new ChessBoard();
+				String[] moves = line.split("\\s+");
+				List<PositionTask> tasks = new ArrayList<PositionTask>();
+				StringBuilder played = new StringBuilder();
+				String error = "";
+				for (int ply = 0; ply <= moves.length; ply++) {
+					tasks.add(new PositionTask(board.copy(), game, ply, played.toString().trim()));
+					if (ply == moves.length) break;
+					int move = board.parseMove(moves[ply]);
+					if (move == Move.NONE) {
+						error = "\t" + moves[ply] + " is not a valid move";
+						break;
+					}
+					board.makeMove(move);
+					played.append(moves[ply]).append(' ');
+				}
+				invokeAll(tasks);
+				StringBuilder found = new StringBuilder();
+				for (PositionTask task : tasks) {
+					if (task.join() != null) found.append(task.join());
+				}
+				games.incrementAndGet();
+				synchronized (PuzzleFinder.this) {
+					out.print(found);
+					out.println("done\t" + game + error);
+					out.flush();
+				}
+			} catch (Exception e) {
+				// marked done with the error so a failing game is reported rather than retried on every run
+				failed.incrementAndGet();
+				synchronized (PuzzleFinder.this) {
+					out.println("done\t" + game + "\terror " + e);
+					out.flush();
+				}
+			} finally {
+				inFlight.release();
+			}
+		}
+	}
+
+	/**
+	 * Class that represents the search of one position, giving its puzzle line or null
+	 */
+	private class PositionTask extends RecursiveTask<String> {
+		private static final long serialVersionUID = 1L;
+		private final ChessBoard board;
+		private final int game;
+		private final int ply;
+		private final String played;
+
+		PositionTask(ChessBoard board, int game, int ply, String played) {
+			this.board = board;
+			this.game = game;
+			this.ply = ply;
+			this.played = played;
+		}
+
+		protected String compute() {
+			positions.incrementAndGet();
+			int solution = Move.NONE;
+			int mateIn = 0;
+			for (int n = 1; n <= maxMoves && mateIn == 0; n++) {
+				MoveList legal = board.getLegalMoves();
+				int count = 0;
+				for (int i = 0; i < legal.size() && count < 2; i++) {
+					board.makeMove(legal.get(i));
+					if (isMated(board, n)) {
+						solution = legal.get(i);
+						count++;
+					}
+					board.unmakeMove();
+				}
+				if (count > 0) mateIn = n;
+				if (count > 1) solution = Move.NONE;
+			}
+			if (solution == Move.NONE) return null;
+			puzzles.incrementAndGet();
+			return "puzzle\t" + game + "\t" + ply + "\tmate in " + mateIn + "\t" + Move.toString(solution) + "\t" + played + "\n";
+		}
+	}
+
+	/**
+	 * Returns true if the side to move is checkmated now or within the given number of moves of
+	 * the other side, whatever it replies
+	 */
+	private static boolean isMated(ChessBoard board, int moves) {
+		MoveList replies = board.getLegalMoves();
+		if (replies.isEmpty()) return board.isCheckmate(board.getTurn());
+		if (moves == 1) return false;
+		for (int i = 0; i < replies.size(); i++) {
+			board.makeMove(replies.get(i));
+			boolean mated = canMate(board, moves - 1);
+			board.unmakeMove();
+			if (!mated) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the side to move can force mate within the given number of moves
+	 */
+	private static boolean canMate(ChessBoard board, int moves) {
+		MoveList legal = board.getLegalMoves();
+		for (int i = 0; i < legal.size(); i++) {
+			board.makeMove(legal.get(i));
+			boolean mated = isMated(board, moves);
+			board.unmakeMove();
+			if (mated) return true;
+		}
+		return false;
+	}
+
+	private static Set<Integer> readDone(File output) throws IOException {
+		Set<Integer> done = new HashSet<Integer>();
+		if (!output.isFile()) return done;
+		BufferedReader in = new BufferedReader(new FileReader(output));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("done\t")) {
+					String[] fields = line.split("\t");
+					done.add(Integer.parseInt(fields[1]));
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return done;
+	}
+
+	/**
+	 * Runs the finder from the command line
+	 * @param args the games file, the output file, then optional -moves n and -threads n
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("usage: PuzzleFinder <games> <output> [-moves n] [-threads n]");
+			return;
+		}
+		int maxMoves = 2;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 2; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-moves")) maxMoves = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-threads")) threads = Integer.parseInt(args[i + 1]);
+		}
+		PuzzleFinder finder = new PuzzleFinder(maxMoves, threads);
+		long start = System.nanoTime();
+		finder.run(new File(args[0]), new File(args[1]));
+		long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+		System.out.println(finder.getGames() + " games, " + finder.getPositions() + " positions, " + finder.getPuzzles()
+				+ " puzzles, " + finder.getFailed() + " failed in " + millis + "ms (" + finder.getSkipped() + " games already done)");
+	}
+}
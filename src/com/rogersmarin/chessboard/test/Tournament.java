@@ -0,0 +1,247 @@
+package com.rogersmarin.chessboard.test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.rogersmarin.chessboard.AlphaBetaEngine;
+import com.rogersmarin.chessboard.ChessBoard;
+import com.rogersmarin.chessboard.Colour;
+import com.rogersmarin.chessboard.Engine;
+import com.rogersmarin.chessboard.MctsEngine;
+import com.rogersmarin.chessboard.Move;
+import com.rogersmarin.chessboard.RandomEngine;
+
+/**
+ * Plays two engines against each other from a set of openings. Every opening is played twice
+ * with the colours swapped, games run concurrently on a pool of worker threads with one board
+ * each, and the running score is printed as games finish. Only the score counters are kept so
+ * memory use does not grow with the number of games.
+ * @author roger
+ *
+ */
+public class Tournament {
+
+	private static final String[] DEFAULT_OPENINGS = {
+		"e2e4 e7e5", "e2e4 c7c5", "e2e4 e7e6", "e2e4 c7c6", "d2d4 d7d5",
+		"d2d4 g8f6", "c2c4 e7e5", "g1f3 d7d5"
+	};
+
+	private final String first;
+	private final String second;
+	private final List<String> openings;
+	private final int maxPlies;
+
+	private int wins, draws, losses, errors;
+	private Exception firstError;
+	private long start;
+	private PrintStream out;
+
+	/**
+	 * @param first engine specification e.g alphabeta:3 or random
+	 * @param second engine specification
+	 * @param openings each opening is a space separated list of moves e.g e2e4 e7e5
+	 * @param maxPlies games reaching this many plies are scored as draws
+	 */
+	public Tournament(String first, String second, List<String> openings, int maxPlies) {
+		this.first = first;
+		this.second = second;
+		this.openings = openings;
+		this.maxPlies = maxPlies;
+	}
+
+	/**
+	 * Plays the games, printing the score every reportEvery games and once all games are done
+	 * @param games
+	 * @param threads
+	 * @param reportEvery
+	 * @param report where the score is printed, or null
+	 * @throws InterruptedException
+	 */
+	public void run(int games, int threads, final int reportEvery, PrintStream report) throws InterruptedException {
+		synchronized (this) {
+			wins = draws = losses = errors = 0;
+			firstError = null;
+			start = System.nanoTime();
+			out = report;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final Semaphore inFlight = new Semaphore(threads * 2);
+		try {
+			for (int game = 0; game < games; game++) {
+				inFlight.acquire();
+				final int number = game;
+				pool.execute(new Runnable() {
+					public void run() {
+						try {
+							record(play(number), reportEvery);
+						} catch (Exception e) {
+							recordError(e, reportEvery);
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		}
+		if (games % reportEvery != 0) print();
+	}
+
+	public synchronized int getWins() {
+		return wins;
+	}
+
+	public synchronized int getDraws() {
+		return draws;
+	}
+
+	public synchronized int getLosses() {
+		return losses;
+	}
+
+	/**
+	 * Returns the number of games of the last run that could not be finished
+	 * @return
+	 */
+	public synchronized int getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Returns the exception that stopped the first game that could not be finished
+	 * @return the exception or null if every game finished
+	 */
+	public synchronized Exception getFirstError() {
+		return firstError;
+	}
+
+	/**
+	 * Plays one game and returns 1, 0 or -1 for a win, draw or loss of the first engine
+	 */
+	private int play(int number) throws Exception {
+		Engine firstEngine = create(first, number);
+		Engine secondEngine = create(second, number + 1);
+		boolean firstIsWhite = (number & 1) == 0;
+		ChessBoard board = new ChessBoard();
+		for (String move : openings.get((number / 2) % openings.size()).split("\\s+")) {
+			int parsed = board.parseMove(move);
+			if (parsed == Move.NONE) throw new IllegalArgumentException("invalid opening move " + move);
+			board.makeMove(parsed);
+		}
+		for (int plies = 0; plies < maxPlies; plies++) {
+			if (board.getLegalMoves().isEmpty()) {
+				if (!board.isCheck(board.getTurn())) return 0;
+				boolean whiteLost = board.getTurn().equals(Colour.WHITE);
+				return (whiteLost != firstIsWhite) ? 1 : -1;
+			}
+			if (board.isThreefoldRepetition() || board.isFiftyMoveDraw()) return 0;
+			boolean whiteToMove = board.getTurn().equals(Colour.WHITE);
+			Engine engine = (whiteToMove == firstIsWhite) ? firstEngine : secondEngine;
+			board.makeMove(engine.chooseMove(board));
+		}
+		return 0;
+	}
+
+	private synchronized void record(int result, int reportEvery) {
+		if (result > 0) {
+			wins++;
+		} else if (result < 0) {
+			losses++;
+		} else {
+			draws++;
+		}
+		if ((wins + draws + losses + errors) % reportEvery == 0) print();
+	}
+
+	/**
+	 * Counts a game that could not be finished, it is left out of the score but shown in the report
+	 * with the first exception
+	 */
+	private synchronized void recordError(Exception e, int reportEvery) {
+		errors++;
+		if (firstError == null) firstError = e;
+		if ((wins + draws + losses + errors) % reportEvery == 0) print();
+	}
+
+	private synchronized void print() {
+		if (out != null) out.println(report());
+	}
+
+	/**
+	 * Returns the score of the first engine with an Elo difference and its 95% confidence interval,
+	 * and the number of games that failed with an error and the first error
+	 */
+	private synchronized String report() {
+		String error = (firstError == null) ? "" : ", first " + firstError;
+		int games = wins + draws + losses;
+		if (games == 0) return "no games played, " + errors + " errors" + error;
+		double score = (wins + draws * 0.5) / games;
+		double variance = (wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2)
+				+ losses * Math.pow(score, 2)) / games;
+		double margin = 1.96 * Math.sqrt(variance / games);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return String.format("%d games  +%d =%d -%d  score %.1f%%  elo %+.0f [%+.0f, %+.0f]  %d errors  %.1f games/s",
+				games, wins, draws, losses, score * 100, elo(score), elo(score - margin), elo(score + margin),
+				errors, (games + errors) / seconds) + error;
+	}
+
+	private static double elo(double score) {
+		score = Math.min(0.999, Math.max(0.001, score));
+		return -400 * Math.log10(1 / score - 1);
+	}
+
+	/**
+	 * Creates an engine from a specification, random, alphabeta:depth or mcts:playouts
+	 */
+	static Engine create(String spec, long seed) {
+		String[] parts = spec.split(":");
+		if (parts[0].equals("random")) return new RandomEngine(seed);
+		if (parts[0].equals("alphabeta")) return new AlphaBetaEngine(parts.length > 1 ? Integer.parseInt(parts[1]) : 2);
+		// games already run in parallel so each search gets a single thread
+		if (parts[0].equals("mcts")) return new MctsEngine(parts.length > 1 ? Integer.parseInt(parts[1]) : 1000, 1, 200, true, seed);
+		throw new IllegalArgumentException("unknown engine " + spec);
+	}
+
+	/**
+	 * Runs a tournament from the command line
+	 * @param args -engine1 spec -engine2 spec -games n -threads n -openings file -maxplies n -report n
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String first = "alphabeta:2", second = "random", openingFile = null;
+		int games = 100, threads = Runtime.getRuntime().availableProcessors(), maxPlies = 300, reportEvery = 10;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-engine1")) first = args[i + 1];
+			else if (args[i].equals("-engine2")) second = args[i + 1];
+			else if (args[i].equals("-games")) games = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-threads")) threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-openings")) openingFile = args[i + 1];
+			else if (args[i].equals("-maxplies")) maxPlies = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-report")) reportEvery = Integer.parseInt(args[i + 1]);
+		}
+		List<String> openings = new ArrayList<String>();
+		if (openingFile != null) {
+			BufferedReader in = new BufferedReader(new FileReader(openingFile));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.trim().length() > 0 && !line.startsWith("#")) openings.add(line.trim());
+				}
+			} finally {
+				in.close();
+			}
+		} else {
+			for (String opening : DEFAULT_OPENINGS) openings.add(opening);
+		}
+		new Tournament(first, second, openings, maxPlies).run(games, threads, reportEvery, System.out);
+	}
+}
@@ -0,0 +1,348 @@
+package com.rogersmarin.chessboard.test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.rogersmarin.chessboard.AlphaBetaEngine;
+import com.rogersmarin.chessboard.ChessBoard;
+import com.rogersmarin.chessboard.Colour;
+import com.rogersmarin.chessboard.Move;
+
+/**
+ * Universal Chess Interface front end so the board and AlphaBetaEngine can be driven by chess GUIs
+ * and testing harnesses. Commands are read on the calling thread and each search runs on its own
+ * thread with iterative deepening, so stop and isready are answered while a search is running.
+ * Output is queued and written by a separate thread, flushing whenever the queue runs empty, so
+ * neither the reader nor the search ever waits on a slow consumer.
+ *
+ * A position command that extends or shortens the moves of the previous one only makes or takes
+ * back the moves that differ, as a GUI sends the whole game again before every search.
+ * @author roger
+ *
+ */
+public class Uci {
+
+	private static final int MAX_DEPTH = 64;
+	private static final String STARTPOS = "startpos";
+
+	private final BufferedReader in;
+	private final Output out;
+	private final Timer timer = new Timer("uci-timer", true);
+	private ChessBoard board;
+	private String base = STARTPOS;
+	private final List<String> applied = new ArrayList<String>();
+	private boolean valid = true;
+	private Search search;
+
+	public Uci(InputStream in, OutputStream out) throws Exception {
+		this.in = new BufferedReader(new InputStreamReader(in));
+		this.out = new Output(new BufferedWriter(new OutputStreamWriter(out)));
+		this.board = new ChessBoard();
+	}
+
+	/**
+	 * Answers commands until quit or the end of the input
+	 * @throws Exception
+	 */
+	public void run() throws Exception {
+		String line;
+		while ((line = in.readLine()) != null) {
+			String[] tokens = line.trim().split("\\s+");
+			String command = tokens[0];
+			if (command.equals("uci")) {
+				out.println("id name Chessboard");
+				out.println("id author roger");
+				out.println("uciok");
+			} else if (command.equals("isready")) {
+				out.println("readyok");
+			} else if (command.equals("ucinewgame")) {
+				stopSearch();
+				board.reset();
+				base = STARTPOS;
+				applied.clear();
+				valid = true;
+			} else if (command.equals("position")) {
+				stopSearch();
+				setPosition(tokens);
+			} else if (command.equals("go")) {
+				stopSearch();
+				go(tokens);
+			} else if (command.equals("stop")) {
+				if (search != null) search.stop();
+			} else if (command.equals("d")) {
+				out.println(board.toString());
+			} else if (command.equals("quit")) {
+				break;
+			} else if (command.length() > 0) {
+				out.println("info string unknown command " + command);
+			}
+		}
+		stopSearch();
+		timer.cancel();
+		out.close();
+	}
+
+	/**
+	 * Returns the board set up by the position commands, only to be read while no command is being handled
+	 */
+	ChessBoard getBoard() {
+		return board;
+	}
+
+	/**
+	 * Sets the position from position startpos|fen <fen> [moves ...], only replaying the moves that
+	 * differ from the position already on the board. A position that cannot be set up is reported and
+	 * go is refused until a valid one is sent, rather than searching whatever was left on the board
+	 */
+	private void setPosition(String[] tokens) throws Exception {
+		int index = 1;
+		String newBase = STARTPOS;
+		if (tokens.length > 1 && tokens[1].equals("fen")) {
+			StringBuilder fen = new StringBuilder();
+			for (index = 2; index < tokens.length && !tokens[index].equals("moves"); index++) {
+				fen.append(tokens[index]).append(' ');
+			}
+			newBase = fen.toString().trim();
+		} else {
+			index = 2;
+		}
+		List<String> moves = new ArrayList<String>();
+		if (index < tokens.length && tokens[index].equals("moves")) {
+			for (index++; index < tokens.length; index++) {
+				moves.add(tokens[index]);
+			}
+		}
+		int common = 0;
+		if (newBase.equals(base)) {
+			while (common < applied.size() && common < moves.size() && applied.get(common).equals(moves.get(common))) {
+				common++;
+			}
+			while (applied.size() > common) {
+				board.unmakeMove();
+				applied.remove(applied.size() - 1);
+			}
+		} else {
+			applied.clear();
+			try {
+				board = newBase.equals(STARTPOS) ? new ChessBoard() : ChessBoard.fromFen(newBase);
+				base = newBase;
+			} catch (IllegalArgumentException e) {
+				// back to the starting position so the board, base and applied moves still agree
+				out.println("info string " + e.getMessage());
+				board = new ChessBoard();
+				base = STARTPOS;
+				valid = false;
+				return;
+			}
+		}
+		for (int i = common; i < moves.size(); i++) {
+			int move = board.parseMove(moves.get(i));
+			if (move == Move.NONE) {
+				out.println("info string " + moves.get(i) + " is not a valid move");
+				valid = false;
+				return;
+			}
+			board.makeMove(move);
+			applied.add(moves.get(i));
+		}
+		valid = true;
+	}
+
+	/**
+	 * Starts a search of the current position from go [depth n] [movetime ms] [wtime ms] [btime ms]
+	 * [winc ms] [binc ms] [movestogo n] [infinite]
+	 */
+	private void go(String[] tokens) {
+		if (!valid) {
+			out.println("info string no valid position to search");
+			out.println("bestmove 0000");
+			return;
+		}
+		int depth = MAX_DEPTH;
+		long moveTime = -1, time = -1, increment = 0;
+		int movesToGo = 30;
+		boolean infinite = false;
+		boolean white = board.getTurn().equals(Colour.WHITE);
+		for (int i = 1; i < tokens.length; i++) {
+			String token = tokens[i];
+			if (token.equals("infinite")) {
+				infinite = true;
+			} else if (i + 1 < tokens.length) {
+				long value;
+				try {
+					value = Long.parseLong(tokens[i + 1]);
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				if (token.equals("depth")) depth = (int) Math.max(1, Math.min(MAX_DEPTH, value));
+				else if (token.equals("movetime")) moveTime = value;
+				else if (token.equals(white ? "wtime" : "btime")) time = value;
+				else if (token.equals(white ? "winc" : "binc")) increment = value;
+				else if (token.equals("movestogo")) movesToGo = (int) Math.max(1, value);
+				else continue;
+				i++;
+			}
+		}
+		if (moveTime < 0 && time >= 0) {
+			// keep a margin for the GUI so the clock never runs out
+			moveTime = Math.max(1, Math.min(time / movesToGo + increment / 2, time - 50));
+		}
+		search = new Search(board.copy(), depth, infinite);
+		Thread thread = new Thread(search, "uci-search");
+		thread.setDaemon(true);
+		search.thread = thread;
+		thread.start();
+		if (moveTime >= 0 && !infinite) {
+			final Search timed = search;
+			timer.schedule(new TimerTask() {
+				public void run() {
+					timed.stop();
+				}
+			}, moveTime);
+		}
+	}
+
+	private void stopSearch() throws InterruptedException {
+		if (search != null) {
+			search.stop();
+			search.thread.join();
+			search = null;
+		}
+	}
+
+	/**
+	 * Class that represents one go command, deepening one ply at a time until stopped or the depth is reached
+	 */
+	private class Search implements Runnable {
+		private final ChessBoard position;
+		private final int maxDepth;
+		private final boolean infinite;
+		private final AlphaBetaEngine engine;
+		private volatile boolean stopped;
+		private Thread thread;
+
+		Search(ChessBoard position, int maxDepth, boolean infinite) {
+			this.position = position;
+			this.maxDepth = maxDepth;
+			this.infinite = infinite;
+			this.engine = new AlphaBetaEngine(maxDepth);
+		}
+
+		public void run() {
+			final long start = System.nanoTime();
+			int best = Move.NONE;
+			try {
+				best = engine.deepen(position, maxDepth, new AlphaBetaEngine.DepthListener() {
+					public void depthDone(int depth, int move, int score, long nodes) {
+						long millis = (System.nanoTime() - start) / 1000000;
+						out.println("info depth " + depth + " score " + score(score) + " nodes " + nodes + " time " + millis
+								+ " nps " + nodes * 1000 / Math.max(1, millis) + " pv " + Move.toString(move));
+					}
+				});
+				if (best == Move.NONE && !position.getLegalMoves().isEmpty()) best = position.getLegalMoves().get(0);
+			} catch (RuntimeException e) {
+				out.println("info string search failed " + e);
+			} finally {
+				// the GUI waits for bestmove whatever happened to the search
+				if (infinite) awaitStop();
+				out.println("bestmove " + (best == Move.NONE ? "0000" : Move.toString(best)));
+			}
+		}
+
+		/**
+		 * Waits for stop, the protocol only allows bestmove after stop when searching without a limit
+		 */
+		private synchronized void awaitStop() {
+			while (!stopped) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+
+		void stop() {
+			stopped = true;
+			engine.stop();
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+
+		private String score(int score) {
+			if (Math.abs(score) <= AlphaBetaEngine.MATE - MAX_DEPTH) return "cp " + score;
+			int plies = AlphaBetaEngine.MATE - Math.abs(score);
+			return "mate " + (score > 0 ? (plies + 1) / 2 : -(plies + 1) / 2);
+		}
+	}
+
+	/**
+	 * Class that writes lines on its own thread, so callers only ever add to a queue
+	 */
+	private static class Output implements Runnable {
+		private static final String END = new String("end");
+		private final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+		private final Writer writer;
+		private final Thread thread;
+
+		Output(Writer writer) {
+			this.writer = writer;
+			this.thread = new Thread(this, "uci-output");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void println(String line) {
+			lines.add(line);
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					String line = lines.take();
+					do {
+						if (line == END) {
+							writer.flush();
+							return;
+						}
+						writer.write(line);
+						writer.write('\n');
+					} while ((line = lines.poll()) != null);
+					writer.flush();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		void close() throws InterruptedException {
+			lines.add(END);
+			thread.join();
+		}
+	}
+
+	/**
+	 * Runs the front end on standard input and output
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new Uci(System.in, System.out).run();
+	}
+}